@@ -0,0 +1,70 @@
+package la.jarve.automata.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares two JMH JSON result files (-rf json) and exits with status 1 when a benchmark's
+ * score, or its normalized allocation rate from the gc profiler, got worse than the
+ * threshold percentage. Usage: BaselineComparison baseline.json current.json [threshold]
+ */
+public final class BaselineComparison {
+
+    private static final String ALLOCATION_METRIC = "\u00b7gc.alloc.rate.norm";
+
+    private BaselineComparison() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineComparison baseline.json current.json [thresholdPercent]");
+            System.exit(2);
+        }
+        final double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        final Map<String, JsonNode> baseline = read(new File(args[0]));
+        final Map<String, JsonNode> current = read(new File(args[1]));
+
+        boolean regressed = false;
+        for (Map.Entry<String, JsonNode> entry : current.entrySet()) {
+            final JsonNode before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.printf("%-70s new%n", entry.getKey());
+                continue;
+            }
+            final JsonNode after = entry.getValue();
+            // Higher is better for throughput, lower for the time based modes
+            final boolean throughput = "thrpt".equals(after.path("mode").asText());
+            final double scoreChange = change(before.path("primaryMetric"), after.path("primaryMetric"));
+            final double allocationChange = change(before.path("secondaryMetrics").path(ALLOCATION_METRIC),
+                    after.path("secondaryMetrics").path(ALLOCATION_METRIC));
+            final boolean worse = (throughput ? -scoreChange : scoreChange) > threshold
+                    || allocationChange > threshold;
+            regressed |= worse;
+            System.out.printf("%-70s score %+7.1f%%  alloc %+7.1f%%%s%n", entry.getKey(), scoreChange,
+                    allocationChange, worse ? "  REGRESSION" : "");
+        }
+        System.exit(regressed ? 1 : 0);
+    }
+
+    private static Map<String, JsonNode> read(final File file) throws IOException {
+        final Map<String, JsonNode> results = new LinkedHashMap<>();
+        for (JsonNode result : new ObjectMapper().readTree(file)) {
+            results.put(result.path("benchmark").asText() + result.path("params"), result);
+        }
+        return results;
+    }
+
+    private static double change(final JsonNode before, final JsonNode after) {
+        final double from = before.path("score").asDouble(Double.NaN);
+        final double to = after.path("score").asDouble(Double.NaN);
+        if (Double.isNaN(from) || Double.isNaN(to) || from == 0) {
+            return 0;
+        }
+        return (to - from) / from * 100;
+    }
+}
@@ -0,0 +1,159 @@
+package la.jarve.automata.benchmark;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import eu.aleon.aleoncean.device.DeviceParameter;
+import eu.aleon.aleoncean.packet.ESP3Packet;
+import la.jarve.automata.cluster.LoopbackPeer;
+
+/**
+ * Runs two cluster nodes over the loopback address and checks that radio packets, writes and
+ * parameters get across, that a node with the wrong secret is turned away, that an AUTH relayed
+ * from another node is rejected and that a garbage frame only costs its own connection. Exits with status 1 when a check fails.
+ * Usage: ClusterLoopbackCheck
+ */
+public final class ClusterLoopbackCheck {
+
+    private static final byte[] SECRET = "loopback".getBytes(StandardCharsets.UTF_8);
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final byte TYPE_HELLO = 1;
+    private static final byte TYPE_WRITE = 3;
+    private static final byte TYPE_AUTH = 5;
+    private static final int NONCE_BYTES = 16;
+
+    private static boolean failed;
+
+    private ClusterLoopbackCheck() {
+    }
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        final byte[] frame = Fixtures.frames("mixed").get(0);
+        final int portA = freePort();
+        final int portB = freePort();
+        try (LoopbackPeer a = new LoopbackPeer("a", SECRET, portA, "b", portB);
+             LoopbackPeer b = new LoopbackPeer("b", SECRET, portB, "a", portA)) {
+            a.start();
+            b.start();
+            check("nodes connect", awaitConnected(a) && awaitConnected(b));
+            exchange(a, b, frame);
+
+            try (LoopbackPeer intruder = new LoopbackPeer("b", "wrong".getBytes(StandardCharsets.UTF_8),
+                    freePort(), "a", portA)) {
+                intruder.start();
+                Thread.sleep(TimeUnit.SECONDS.toMillis(2));
+                check("node with the wrong secret is turned away", !intruder.isConnected());
+            }
+            try (LoopbackPeer lonely = new LoopbackPeer("a", SECRET, freePort(), "b", freePort())) {
+                lonely.start();
+                check("AUTH relayed from another node is rejected", !relayAuth(lonely, b, frame));
+            }
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), portA)) {
+                final OutputStream out = socket.getOutputStream();
+                out.write(ByteBuffer.allocate(9).putInt(5).put((byte) 4).putInt(-1).array());
+                out.write(ByteBuffer.allocate(4).putInt(Integer.MAX_VALUE).array());
+                out.flush();
+                Thread.sleep(500);
+            }
+            check("nodes stay connected", a.isConnected() && b.isConnected());
+            exchange(a, b, frame);
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static void exchange(@NotNull final LoopbackPeer a, @NotNull final LoopbackPeer b,
+                                 @NotNull final byte[] frame) throws InterruptedException {
+        a.getNode().broadcastRadio(frame);
+        final ESP3Packet radio = b.pollRadio(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        check("radio packet arrives", radio != null && Arrays.equals(radio.generateRaw(), frame));
+
+        b.getNode().sendWrite("a", frame);
+        final byte[] write = a.pollWrite(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        check("write arrives", write != null && Arrays.equals(write, frame));
+
+        a.getNode().broadcastParameter(0x0187009F, DeviceParameter.SWITCH, true);
+        final String parameter = b.pollParameter(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        check("parameter arrives", "0187009F SWITCH=true".equals(parameter));
+    }
+
+    /**
+     * Poses as node b to a node whose own b is not around, answering its nonce with the AUTH
+     * which the real b gives when dialed by someone claiming to be a. Returns whether a WRITE
+     * sent afterwards got through.
+     */
+    private static boolean relayAuth(@NotNull final LoopbackPeer target, @NotNull final LoopbackPeer oracle,
+                                     @NotNull final byte[] frame) throws IOException, InterruptedException {
+        final InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (Socket toTarget = new Socket(loopback, target.getNode().getLocalAddress().getPort());
+             Socket toOracle = new Socket(loopback, oracle.getNode().getLocalAddress().getPort())) {
+            final DataInputStream targetIn = new DataInputStream(toTarget.getInputStream());
+            final byte[] targetNonce = Arrays.copyOf(readFrame(targetIn, TYPE_HELLO), NONCE_BYTES);
+
+            final DataInputStream oracleIn = new DataInputStream(toOracle.getInputStream());
+            writeFrame(toOracle.getOutputStream(), TYPE_HELLO, hello(targetNonce, "a"));
+            readFrame(oracleIn, TYPE_HELLO);
+            final byte[] auth = readFrame(oracleIn, TYPE_AUTH);
+
+            final OutputStream out = toTarget.getOutputStream();
+            writeFrame(out, TYPE_HELLO, hello(new byte[NONCE_BYTES], "b"));
+            writeFrame(out, TYPE_AUTH, auth);
+            writeFrame(out, TYPE_WRITE, frame);
+            return target.pollWrite(1, TimeUnit.SECONDS) != null || target.isConnected();
+        }
+    }
+
+    @NotNull
+    private static byte[] hello(@NotNull final byte[] nonce, @NotNull final String nodeId) {
+        final byte[] id = nodeId.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(nonce.length + id.length).put(nonce).put(id).array();
+    }
+
+    @NotNull
+    private static byte[] readFrame(@NotNull final DataInputStream in, final byte type) throws IOException {
+        final byte[] body = new byte[in.readInt() - 1];
+        final byte actual = in.readByte();
+        in.readFully(body);
+        if (actual != type) {
+            throw new IOException("Expected a frame of type " + type + " but got " + actual);
+        }
+        return body;
+    }
+
+    private static void writeFrame(@NotNull final OutputStream out, final byte type, @NotNull final byte[] body)
+            throws IOException {
+        out.write(ByteBuffer.allocate(5 + body.length).putInt(1 + body.length).put(type).put(body).array());
+        out.flush();
+    }
+
+    private static boolean awaitConnected(@NotNull final LoopbackPeer peer) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (!peer.isConnected()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(50);
+        }
+        return true;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void check(@NotNull final String name, final boolean passed) {
+        System.out.printf("%-50s %s%n", name, passed ? "ok" : "FAILED");
+        failed |= !passed;
+    }
+}
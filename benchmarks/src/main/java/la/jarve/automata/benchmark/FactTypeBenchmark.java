@@ -0,0 +1,84 @@
+package la.jarve.automata.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.aleon.aleoncean.device.Device;
+import eu.aleon.aleoncean.device.DeviceParameterUpdatedEvent;
+import eu.aleon.aleoncean.device.DeviceParameterUpdatedListener;
+import eu.aleon.aleoncean.packet.RadioPacket;
+import la.jarve.automata.core.DeviceRoutingTable;
+import la.jarve.automata.core.Parameter;
+import la.jarve.automata.rules.RulesEngine;
+import la.jarve.automata.rules.RulesEngineFactory;
+
+/**
+ * The same rules on Drools written against plain Parameters, whose Object values go through
+ * MVEL coercion (benchmark.drl), and against the typed LongParameters (benchmark-typed.drl),
+ * inserting the parameter updates of the 4BS trace and firing them as one batch.
+ */
+@State(Scope.Thread)
+public class FactTypeBenchmark {
+
+    @Param({"GENERIC", "TYPED"})
+    public String facts;
+
+    private RulesEngineFactory engineFactory;
+    private RulesEngine engine;
+    private boolean typed;
+    private final List<DeviceParameterUpdatedEvent> events = new ArrayList<>();
+    // Device names of the events, as the rules match on them
+    private final List<String> names = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws IOException {
+        typed = "TYPED".equals(facts);
+        engineFactory = Fixtures.droolsRules(typed ? "benchmark-typed.drl" : "benchmark.drl", new AtomicLong());
+        final DeviceRoutingTable routingTable = new DeviceRoutingTable(Fixtures.devices());
+        final DeviceParameterUpdatedListener listener = events::add;
+        for (RadioPacket packet : Fixtures.radioPackets("4bs")) {
+            final Device[] devices = routingTable.get(DeviceRoutingTable.toInt(packet.getSenderId()));
+            if (devices != null) {
+                for (Device device : devices) {
+                    device.addParameterUpdatedListener(listener);
+                    device.parseRadioPacket(packet);
+                    device.removeParameterUpdatedListener(listener);
+                }
+            }
+        }
+        for (DeviceParameterUpdatedEvent event : events) {
+            names.add(Fixtures.nameOf(event));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void newEngine() throws IOException {
+        engine = engineFactory.create();
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeEngine() {
+        engine.close();
+    }
+
+    @Benchmark
+    public int fireBatch() {
+        for (int i = 0; i < events.size(); i++) {
+            final DeviceParameterUpdatedEvent event = events.get(i);
+            engine.insert(typed ? Parameter.of(event, names.get(i)) : new Parameter(event, names.get(i)));
+        }
+        final int fired = engine.fire();
+        engine.retract(Long.MAX_VALUE, 0);
+        return fired;
+    }
+}
@@ -0,0 +1,181 @@
+package la.jarve.automata.benchmark;
+
+import com.google.common.collect.ImmutableBiMap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.Resources;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.kie.api.KieBase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.aleon.aleoncean.device.Device;
+import eu.aleon.aleoncean.device.DeviceParameterUpdatedEvent;
+import eu.aleon.aleoncean.packet.ESP3Packet;
+import eu.aleon.aleoncean.packet.ESP3PacketFactory;
+import eu.aleon.aleoncean.packet.EnOceanId;
+import eu.aleon.aleoncean.packet.RadioPacket;
+import eu.aleon.aleoncean.packet.ResponsePacket;
+import eu.aleon.aleoncean.rxtx.ESP3Connector;
+import la.jarve.automata.DeviceRegistry;
+import la.jarve.automata.rules.DroolsRulesEngine;
+import la.jarve.automata.rules.KieBaseLoader;
+import la.jarve.automata.rules.NativeRulesEngine;
+import la.jarve.automata.rules.RulesEngineFactory;
+import la.jarve.automata.rules.RulesEngineType;
+
+/**
+ * Shared setup of the benchmarks: recorded frame traces, the devices of the README example
+ * configuration and the benchmark rules.
+ */
+final class Fixtures {
+
+    static final EnOceanId SENDER_ID = new EnOceanId("FF:F0:C5:7E");
+    static final ImmutableBiMap<String, EnOceanId> NAMES = ImmutableBiMap.of(
+            "Buttons", new EnOceanId("FE:FD:8F:12"),
+            "Switch", new EnOceanId("01:87:00:9F"));
+    static final ImmutableMultimap<EnOceanId, String> REMOTE_DEVICES = ImmutableMultimap.of(
+            new EnOceanId("FE:FD:8F:12"), "RD_F6-02-01",
+            new EnOceanId("01:87:00:9F"), "RD_D2-01-08",
+            new EnOceanId("01:87:00:9F"), "RD_A5-12-01");
+
+    private Fixtures() {
+    }
+
+    /**
+     * Reads a trace of hex encoded ESP3 frames, one per line, from frames/&lt;name&gt;.hex.
+     */
+    @NotNull
+    static List<byte[]> frames(@NotNull final String name) throws IOException {
+        final List<byte[]> frames = new ArrayList<>();
+        for (String line : Resources.readLines(Resources.getResource("frames/" + name + ".hex"),
+                StandardCharsets.US_ASCII)) {
+            final String trimmed = line.trim();
+            if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                frames.add(BaseEncoding.base16().decode(trimmed));
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * The trace as the serial port would deliver it.
+     */
+    @NotNull
+    static byte[] stream(@NotNull final String name) throws IOException {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (byte[] frame : frames(name)) {
+            stream.write(frame);
+        }
+        return stream.toByteArray();
+    }
+
+    @NotNull
+    static List<RadioPacket> radioPackets(@NotNull final String name) throws IOException {
+        final List<RadioPacket> packets = new ArrayList<>();
+        for (byte[] frame : frames(name)) {
+            final ESP3Packet packet = ESP3PacketFactory.fromRaw(frame);
+            if (packet instanceof RadioPacket) {
+                packets.add((RadioPacket) packet);
+            }
+        }
+        return packets;
+    }
+
+    @NotNull
+    static Multimap<EnOceanId, Device> devices() {
+        final DeviceRegistry deviceRegistry = new DeviceRegistry();
+        final ImmutableMultimap.Builder<EnOceanId, Device> devices = ImmutableMultimap.builder();
+        for (Map.Entry<EnOceanId, String> entry : REMOTE_DEVICES.entries()) {
+            devices.put(entry.getKey(), deviceRegistry.getConstructorByType(entry.getValue())
+                    .create(new NullConnector(), entry.getKey(), SENDER_ID));
+        }
+        return devices.build();
+    }
+
+    /**
+     * Name of the device of the update, as DeviceService names the facts it gives the rules.
+     */
+    @Nullable
+    static String nameOf(@NotNull final DeviceParameterUpdatedEvent event) {
+        return NAMES.inverse().get(((Device) event.getSource()).getAddressRemote());
+    }
+
+    @NotNull
+    static KieBase rules() throws IOException {
+        return new KieBaseLoader(copyResource("benchmark.drl")).load();
+    }
+
+    /**
+     * Engines of the benchmark rules, benchmark.drl for Drools and benchmark.yaml for the
+     * native engine. Rules fired by either engine are counted in fired.
+     */
+    @NotNull
+    static RulesEngineFactory rulesEngines(@NotNull final RulesEngineType type, @NotNull final AtomicLong fired)
+            throws IOException {
+        if (type == RulesEngineType.NATIVE) {
+            return NativeRulesEngine.factory(copyResource("benchmark.yaml"),
+                    device -> NAMES.containsKey(device) ? NAMES.get(device) : new EnOceanId(device),
+                    (enOceanId, parameter, value) -> fired.incrementAndGet());
+        }
+        return droolsRules("benchmark.drl", fired);
+    }
+
+    /**
+     * Drools engine of a rules file in the resources.
+     */
+    @NotNull
+    static RulesEngineFactory droolsRules(@NotNull final String name, @NotNull final AtomicLong fired)
+            throws IOException {
+        return DroolsRulesEngine.factory(copyResource(name), ImmutableMap.<String, Object>of("fired", fired));
+    }
+
+    @NotNull
+    static Path copyResource(@NotNull final String name) throws IOException {
+        final Path rulesFile = Files.createTempDirectory("automata-benchmark").resolve(name);
+        try (InputStream inputStream = Resources.getResource(name).openStream()) {
+            Files.copy(inputStream, rulesFile);
+        }
+        return rulesFile;
+    }
+
+    /**
+     * Connector for devices which never transmit during the benchmarks.
+     */
+    static final class NullConnector implements ESP3Connector {
+        @Override
+        public boolean connect(final String device) {
+            return true;
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Nullable
+        @Override
+        public ResponsePacket write(final ESP3Packet packet) {
+            return null;
+        }
+
+        @Nullable
+        @Override
+        public ESP3Packet read(final long timeout, final TimeUnit unit) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package la.jarve.automata.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+
+import la.jarve.enocean.packet.ESP3FrameDecoder;
+import la.jarve.enocean.packet.FrameQueue;
+
+/**
+ * TCM310 receive path: serial bytes to frames, one operation decodes the whole trace.
+ */
+@State(Scope.Thread)
+public class FrameDecoderBenchmark {
+
+    @Param({"4bs", "rps", "vld", "mixed"})
+    public String trace;
+
+    private byte[] stream;
+    private ESP3FrameDecoder decoder;
+    private ESP3FrameDecoder queueingDecoder;
+    private FrameQueue frameQueue;
+    private int frames;
+
+    @Setup
+    public void setUp() throws IOException {
+        stream = Fixtures.stream(trace);
+        decoder = new ESP3FrameDecoder(512, (frame, length) -> frames++);
+        frameQueue = new FrameQueue(256, 512);
+        queueingDecoder = new ESP3FrameDecoder(512, frameQueue::offer);
+    }
+
+    @Benchmark
+    public int decode() {
+        frames = 0;
+        decoder.add(stream, 0, stream.length);
+        return frames;
+    }
+
+    @Benchmark
+    public void decodeAndDequeue(final Blackhole blackhole) {
+        queueingDecoder.add(stream, 0, stream.length);
+        byte[] frame;
+        while ((frame = frameQueue.poll()) != null) {
+            blackhole.consume(frame);
+        }
+    }
+}
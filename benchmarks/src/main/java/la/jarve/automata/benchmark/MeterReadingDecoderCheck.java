@@ -0,0 +1,42 @@
+package la.jarve.automata.benchmark;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import la.jarve.enocean.packet.radio.userdata.MeterReadingDecoder;
+import la.jarve.enocean.packet.radio.userdata.UserDataEEPA51021;
+
+/**
+ * Compares MeterReadingDecoder with UserDataEEPA51021 for every 24 bit meter reading and
+ * every data type and divisor, with and without the LRN bit, and exits with status 1 on any
+ * difference. Usage: MeterReadingDecoderCheck
+ */
+public final class MeterReadingDecoderCheck {
+
+    private static final int READINGS = 1 << 24;
+    private static final int MAX_REPORTED = 10;
+
+    private MeterReadingDecoderCheck() {
+    }
+
+    public static void main(final String[] args) {
+        final AtomicLong mismatches = new AtomicLong();
+        for (int db0 = 0; db0 < 0x10; db0++) {
+            final byte info = (byte) db0;
+            IntStream.range(0, READINGS).parallel().forEach(reading -> {
+                final byte[] userData = {(byte) (reading >> 16), (byte) (reading >> 8), (byte) reading, info};
+                final UserDataEEPA51021 expected = new UserDataEEPA51021(userData);
+                if (MeterReadingDecoder.getValue(userData) != expected.getValue()
+                        || MeterReadingDecoder.getDataType(userData) != expected.getDataType()) {
+                    if (mismatches.incrementAndGet() <= MAX_REPORTED) {
+                        System.out.printf("reading %06X DB0 %02X: %d %s, expected %d %s%n", reading, info,
+                                MeterReadingDecoder.getValue(userData), MeterReadingDecoder.getDataType(userData),
+                                expected.getValue(), expected.getDataType());
+                    }
+                }
+            });
+        }
+        System.out.printf("%d readings compared, %d mismatches%n", 0x10L * READINGS, mismatches.get());
+        System.exit(mismatches.get() == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,67 @@
+package la.jarve.automata.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import eu.aleon.aleoncean.packet.ESP3Packet;
+import eu.aleon.aleoncean.packet.ESP3PacketFactory;
+import la.jarve.automata.rules.RulesEngineType;
+import la.jarve.enocean.packet.ESP3FrameDecoder;
+
+/**
+ * The whole packet-to-rule path: serial bytes of a recorded trace are decoded, read by
+ * RadioService, routed by DeviceService and handed through the rules queue to RulesService,
+ * which inserts them in batches and fires the rules. An operation ends once the rules thread
+ * has inserted every update of the trace.
+ */
+@State(Scope.Thread)
+public class PipelineBenchmark {
+
+    @Param({"4bs", "rps", "vld", "mixed"})
+    public String trace;
+
+    @Param({"DROOLS", "NATIVE"})
+    public RulesEngineType engineType;
+
+    private byte[] stream;
+    private ESP3FrameDecoder decoder;
+    private RunningServices services;
+    private final List<ESP3Packet> packets = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws IOException {
+        stream = Fixtures.stream(trace);
+        decoder = new ESP3FrameDecoder(512, this::onFrame);
+        services = new RunningServices(engineType);
+    }
+
+    @TearDown
+    public void tearDown() {
+        services.close();
+    }
+
+    @Benchmark
+    public long pipeline() throws InterruptedException {
+        decoder.add(stream, 0, stream.length);
+        services.play(packets);
+        packets.clear();
+        services.awaitRules();
+        return services.getPublishedEvents();
+    }
+
+    private void onFrame(final byte[] frame, final int length) {
+        final ESP3Packet packet = ESP3PacketFactory.fromRaw(Arrays.copyOf(frame, length));
+        if (packet != null) {
+            packets.add(packet);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package la.jarve.automata.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.List;
+
+import eu.aleon.aleoncean.packet.RadioPacket;
+
+/**
+ * DeviceService.handlePacket: a trace of radio packets read by RadioService and routed by
+ * DeviceService to its devices, which parse them, with the parameter filter, the state journal
+ * and the publishing of the resulting updates.
+ */
+@State(Scope.Thread)
+public class RoutingBenchmark {
+
+    @Param({"4bs", "rps", "vld", "mixed"})
+    public String trace;
+
+    private List<RadioPacket> packets;
+    private RunningServices services;
+
+    @Setup
+    public void setUp() throws IOException {
+        packets = Fixtures.radioPackets(trace);
+        services = new RunningServices(null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        services.close();
+    }
+
+    @Benchmark
+    public long route() throws InterruptedException {
+        services.play(packets);
+        return services.getPublishedEvents();
+    }
+}
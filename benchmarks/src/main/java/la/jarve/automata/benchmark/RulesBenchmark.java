@@ -0,0 +1,93 @@
+package la.jarve.automata.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.aleon.aleoncean.device.Device;
+import eu.aleon.aleoncean.device.DeviceParameterUpdatedEvent;
+import eu.aleon.aleoncean.device.DeviceParameterUpdatedListener;
+import eu.aleon.aleoncean.packet.RadioPacket;
+import la.jarve.automata.core.DeviceRoutingTable;
+import la.jarve.automata.core.Parameter;
+import la.jarve.automata.rules.RulesEngine;
+import la.jarve.automata.rules.RulesEngineFactory;
+import la.jarve.automata.rules.RulesEngineType;
+
+/**
+ * RulesService insert/fire of the parameter updates of the 4BS trace on each rules engine,
+ * firing the rules after every event or once per batch. The inserted facts are retracted at
+ * the end of each operation to keep the working memory from growing.
+ */
+@State(Scope.Thread)
+public class RulesBenchmark {
+
+    @Param({"DROOLS", "NATIVE"})
+    public RulesEngineType engineType;
+
+    private RulesEngineFactory engineFactory;
+    private RulesEngine engine;
+    private final List<DeviceParameterUpdatedEvent> events = new ArrayList<>();
+    // Device names of the events, as the rules match on them
+    private final List<String> names = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws IOException {
+        engineFactory = Fixtures.rulesEngines(engineType, new AtomicLong());
+        final DeviceRoutingTable routingTable = new DeviceRoutingTable(Fixtures.devices());
+        final DeviceParameterUpdatedListener listener = events::add;
+        for (RadioPacket packet : Fixtures.radioPackets("4bs")) {
+            final Device[] devices = routingTable.get(DeviceRoutingTable.toInt(packet.getSenderId()));
+            if (devices != null) {
+                for (Device device : devices) {
+                    device.addParameterUpdatedListener(listener);
+                    device.parseRadioPacket(packet);
+                    device.removeParameterUpdatedListener(listener);
+                }
+            }
+        }
+        for (DeviceParameterUpdatedEvent event : events) {
+            names.add(Fixtures.nameOf(event));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void newEngine() throws IOException {
+        engine = engineFactory.create();
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeEngine() {
+        engine.close();
+    }
+
+    @Benchmark
+    public int fireEach() {
+        int fired = 0;
+        for (int i = 0; i < events.size(); i++) {
+            engine.insert(Parameter.of(events.get(i), names.get(i)));
+            fired += engine.fire();
+        }
+        engine.retract(Long.MAX_VALUE, 0);
+        return fired;
+    }
+
+    @Benchmark
+    public int fireBatch() {
+        for (int i = 0; i < events.size(); i++) {
+            engine.insert(Parameter.of(events.get(i), names.get(i)));
+        }
+        final int fired = engine.fire();
+        engine.retract(Long.MAX_VALUE, 0);
+        return fired;
+    }
+}
@@ -0,0 +1,194 @@
+package la.jarve.automata.benchmark;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Service;
+import com.google.common.util.concurrent.ServiceManager;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import eu.aleon.aleoncean.device.DeviceParameter;
+import eu.aleon.aleoncean.packet.ESP3Packet;
+import eu.aleon.aleoncean.packet.ResponsePacket;
+import eu.aleon.aleoncean.rxtx.ESP3Connector;
+import la.jarve.automata.CommandConfiguration;
+import la.jarve.automata.DeviceRegistry;
+import la.jarve.automata.ParameterFilterConfiguration;
+import la.jarve.automata.RulesConfiguration;
+import la.jarve.automata.TransmitConfiguration;
+import la.jarve.automata.core.FilterMode;
+import la.jarve.automata.rules.OverflowPolicy;
+import la.jarve.automata.rules.RulesEngineType;
+import la.jarve.automata.service.DeviceService;
+import la.jarve.automata.service.RadioService;
+import la.jarve.automata.service.RulesService;
+import la.jarve.automata.service.TransmitService;
+import la.jarve.automata.state.StateJournal;
+import rx.Subscription;
+
+/**
+ * RadioService, DeviceService and optionally RulesService as Automata runs them, for the
+ * devices of the Fixtures: with a parameter filter, a state journal and the rules queue. The
+ * packets of a trace are read by RadioService from a TraceConnector. The TransmitService is
+ * not started, so the commands of the rules are queued and merged but never sent.
+ */
+final class RunningServices implements Closeable {
+
+    private static final long TIMEOUT_SECONDS = 60;
+
+    private final TraceConnector connector = new TraceConnector();
+    private final DeviceService deviceService;
+    @Nullable
+    private final RulesService rulesService;
+    private final ServiceManager serviceManager;
+    private final Subscription counter;
+    private final AtomicLong publishedEvents = new AtomicLong();
+
+    /**
+     * @param engine rules engine, or null to run without rules
+     */
+    RunningServices(@Nullable final RulesEngineType engine) throws IOException {
+        final Path directory = Files.createTempDirectory("automata-benchmark");
+        final RadioService radioService = new RadioService(connector, "trace");
+        final TransmitService transmitService = new TransmitService(TransmitConfiguration.defaults());
+        deviceService = new DeviceService(radioService, transmitService, new DeviceRegistry(), Fixtures.SENDER_ID,
+                Fixtures.REMOTE_DEVICES, Fixtures.NAMES,
+                ImmutableList.of(new ParameterFilterConfiguration(null, DeviceParameter.ENERGY_WS,
+                        FilterMode.UNCHANGED, null, null)),
+                new StateJournal(directory.resolve("state.journal"), 1000));
+        counter = deviceService.parameterObservable.subscribe(event -> publishedEvents.incrementAndGet());
+        if (engine != null) {
+            // No linger, the batches are cut by the end of the trace rather than by time
+            final RulesConfiguration configuration = new RulesConfiguration(null, 0L, null, OverflowPolicy.BLOCK,
+                    null, null, engine, ImmutableMap.of("switchPower",
+                    new CommandConfiguration("Switch", DeviceParameter.SWITCH)));
+            final Path rulesFile = Fixtures.copyResource(engine == RulesEngineType.NATIVE
+                    ? "benchmark.yaml" : "pipeline.drl");
+            rulesService = new RulesService(deviceService, rulesFile.toString(), configuration);
+        } else {
+            rulesService = null;
+        }
+        final ImmutableList.Builder<Service> services = ImmutableList.<Service>builder()
+                .add(radioService, deviceService);
+        if (rulesService != null) {
+            services.add(rulesService);
+        }
+        serviceManager = new ServiceManager(services.build());
+        try {
+            serviceManager.startAsync().awaitHealthy(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (IllegalStateException | TimeoutException e) {
+            close();
+            throw new IOException("Cannot start the services", e);
+        }
+    }
+
+    /**
+     * Has RadioService read the packets, and returns once DeviceService has handled the last.
+     */
+    void play(@NotNull final List<? extends ESP3Packet> packets) throws InterruptedException {
+        connector.play(packets);
+    }
+
+    /**
+     * Waits for the rules thread to have inserted every parameter update published so far.
+     */
+    void awaitRules() {
+        if (rulesService == null) {
+            return;
+        }
+        final long published = publishedEvents.get();
+        while (rulesService.getBusHopLatencyMicros().getCount() < published) {
+            LockSupport.parkNanos(1000);
+        }
+    }
+
+    long getPublishedEvents() {
+        return publishedEvents.get();
+    }
+
+    @Override
+    public void close() {
+        counter.unsubscribe();
+        try {
+            serviceManager.stopAsync().awaitStopped(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Services did not stop", e);
+        }
+    }
+
+    /**
+     * Connector whose reads return the packets given to play. As RadioService reads the next
+     * packet only after DeviceService handled the previous one, a read tells that every packet
+     * returned before has been handled.
+     */
+    static final class TraceConnector implements ESP3Connector {
+        private static final long MAX_READ_MILLIS = 100;
+
+        private final BlockingQueue<ESP3Packet> packets = new LinkedBlockingQueue<>();
+        // Guarded by this
+        private long queued;
+        private long returned;
+        private long handled;
+
+        synchronized void play(@NotNull final List<? extends ESP3Packet> trace) throws InterruptedException {
+            queued += trace.size();
+            packets.addAll(trace);
+            while (handled < queued) {
+                wait();
+            }
+        }
+
+        @Override
+        public boolean connect(final String device) {
+            return true;
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Nullable
+        @Override
+        public ResponsePacket write(final ESP3Packet packet) {
+            return null;
+        }
+
+        /**
+         * Waits at most MAX_READ_MILLIS, so RadioService stops without waiting for the timeout.
+         */
+        @Nullable
+        @Override
+        public ESP3Packet read(final long timeout, final TimeUnit unit) {
+            synchronized (this) {
+                handled = returned;
+                notifyAll();
+            }
+            final ESP3Packet packet;
+            try {
+                packet = packets.poll(Math.min(unit.toMillis(timeout), MAX_READ_MILLIS), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if (packet != null) {
+                synchronized (this) {
+                    returned++;
+                }
+            }
+            return packet;
+        }
+    }
+}
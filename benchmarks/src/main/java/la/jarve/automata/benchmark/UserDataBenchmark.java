@@ -0,0 +1,53 @@
+package la.jarve.automata.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.aleon.aleoncean.packet.RadioPacket;
+import eu.aleon.aleoncean.packet.radio.RadioPacket4BS;
+import la.jarve.enocean.packet.radio.userdata.MeterReadingDecoder;
+import la.jarve.enocean.packet.radio.userdata.UserDataEEPA51021;
+
+/**
+ * A5-12-01 metering telegram decoding, one operation decodes every telegram of the trace.
+ */
+@State(Scope.Thread)
+public class UserDataBenchmark {
+
+    private List<byte[]> userData;
+
+    @Setup
+    public void setUp() throws IOException {
+        userData = new ArrayList<>();
+        for (RadioPacket packet : Fixtures.radioPackets("4bs")) {
+            if (packet instanceof RadioPacket4BS) {
+                userData.add(packet.getUserDataRaw());
+            }
+        }
+    }
+
+    @Benchmark
+    public long userDataEEPA51021() {
+        long sum = 0;
+        for (byte[] raw : userData) {
+            final UserDataEEPA51021 data = new UserDataEEPA51021(raw);
+            sum += data.getValue() + data.getDataType().ordinal();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long meterReadingDecoder() {
+        long sum = 0;
+        for (byte[] raw : userData) {
+            sum += MeterReadingDecoder.getValue(raw) + MeterReadingDecoder.getDataType(raw).ordinal();
+        }
+        return sum;
+    }
+}
@@ -4,6 +4,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.fasterxml.jackson.datatype.guava.GuavaModule;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.Service;
 import com.google.common.util.concurrent.ServiceManager;
 
@@ -14,9 +16,14 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import javax.validation.ConstraintViolation;
 import javax.validation.Validation;
@@ -25,10 +32,26 @@ import javax.validation.ValidatorFactory;
 
 import eu.aleon.aleoncean.device.Device;
 import eu.aleon.aleoncean.device.DeviceParameter;
+import eu.aleon.aleoncean.packet.EnOceanId;
+import eu.aleon.aleoncean.rxtx.ESP3Connector;
+import la.jarve.automata.cluster.ClusterNode;
+import la.jarve.automata.cluster.ForwardingConnector;
+import la.jarve.automata.metrics.Meter;
+import la.jarve.automata.metrics.MetricsExporter;
+import la.jarve.automata.service.ClusterService;
 import la.jarve.automata.service.DeviceService;
+import la.jarve.automata.service.HttpService;
 import la.jarve.automata.service.RadioService;
 import la.jarve.automata.service.RulesService;
-import la.jarve.enocean.device.remote.RemoteDeviceEEPA51201;
+import la.jarve.automata.service.TimeSeriesService;
+import la.jarve.automata.service.TransmitService;
+import la.jarve.automata.state.StateJournal;
+import la.jarve.automata.util.ExecutionMode;
+import la.jarve.automata.util.FileWatcher;
+import la.jarve.automata.util.Threads;
+import la.jarve.enocean.capture.FrameCaptureWriter;
+import la.jarve.enocean.capture.ReplayConnector;
+import la.jarve.enocean.gateway.MultiGatewayConnector;
 import la.jarve.enocean.jssc.TCM310;
 
 /**
@@ -72,12 +95,57 @@ public final class Automata {
             System.exit(-1);
         }
 
+        Threads.useVirtualThreads(configuration.executionMode == ExecutionMode.VIRTUAL);
+
         final DeviceRegistry deviceRegistry = new DeviceRegistry();
-        deviceRegistry.registerDevice("RD_A5-12-01", RemoteDeviceEEPA51201.class);
 
-        final RadioService radioService = new RadioService(new TCM310(), configuration.device);
-        final DeviceService deviceService = new DeviceService(radioService, deviceRegistry,
-                configuration.senderId, configuration.remoteDevices, configuration.names);
+        FrameCaptureWriter capture = null;
+        final Map<String, ESP3Connector> gateways = new LinkedHashMap<>();
+        if (configuration.replay != null) {
+            gateways.put(configuration.device, new ReplayConnector(Paths.get(configuration.replay.file),
+                    configuration.replay.speed, configuration.replay.loop));
+        } else {
+            if (configuration.captureFile != null) {
+                try {
+                    capture = new FrameCaptureWriter(Paths.get(configuration.captureFile));
+                } catch (IOException e) {
+                    LOGGER.error("Cannot create capture file " + configuration.captureFile, e);
+                    System.exit(-1);
+                }
+            }
+            for (String device : Iterables.concat(ImmutableList.of(configuration.device), configuration.gateways)) {
+                final TCM310 tcm310 = new TCM310();
+                tcm310.setCapture(capture);
+                gateways.put(device, tcm310);
+            }
+        }
+        final ClusterNode clusterNode = configuration.cluster != null
+                ? createClusterNode(configuration.cluster)
+                : null;
+        final ESP3Connector localConnector;
+        if (clusterNode != null) {
+            // Peers are gateways too, so packets go to a device through the node hearing it best
+            for (Map.Entry<String, ESP3Connector> entry : gateways.entrySet()) {
+                entry.setValue(new ForwardingConnector(entry.getValue(), clusterNode));
+            }
+            localConnector = gateways.get(configuration.device);
+            for (String peer : clusterNode.getPeers()) {
+                gateways.put("node:" + peer, clusterNode.connectorFor(peer));
+            }
+        } else {
+            localConnector = gateways.get(configuration.device);
+        }
+        final ESP3Connector connector = gateways.size() > 1
+                ? new MultiGatewayConnector(gateways, TimeUnit.MILLISECONDS.toNanos(configuration.duplicateWindowMillis))
+                : localConnector;
+        final RadioService radioService = new RadioService(connector, configuration.device);
+        final TransmitService transmitService = new TransmitService(configuration.transmit);
+        final StateJournal stateJournal = configuration.state != null
+                ? new StateJournal(Paths.get(configuration.state.file), configuration.state.flushIntervalMillis)
+                : null;
+        final DeviceService deviceService = new DeviceService(radioService, transmitService, deviceRegistry,
+                configuration.senderId, configuration.remoteDevices, configuration.names,
+                configuration.parameterFilters, stateJournal);
         deviceService.parameterObservable.retry().subscribe(event -> {
             final DeviceParameter parameter = event.getParameter();
             if (parameter != null && event.getSource() instanceof Device) {
@@ -86,12 +154,147 @@ public final class Automata {
             }
         });
 
-        final RulesService rulesService = new RulesService(deviceService, configuration.rulesFile);
+        final RulesService rulesService = new RulesService(deviceService, configuration.rulesFile,
+                configuration.rules);
+
+        final MetricsExporter metricsExporter = new MetricsExporter();
+        registerMetrics(metricsExporter, connector, radioService, deviceService, rulesService, transmitService);
 
-        final ImmutableList<Service> services = ImmutableList.of(radioService, deviceService, rulesService);
-        final ServiceManager serviceManager = new ServiceManager(services);
+        final ImmutableList.Builder<Service> services = ImmutableList.<Service>builder()
+                .add(radioService, transmitService, deviceService, rulesService);
+        if (configuration.timeSeries != null) {
+            final TimeSeriesService timeSeriesService = new TimeSeriesService(deviceService,
+                    configuration.timeSeries);
+            metricsExporter.gauge("timeseries.writtenRollups", timeSeriesService::getWrittenRollups);
+            services.add(timeSeriesService);
+        }
+        if (configuration.http != null) {
+            final HttpService httpService = new HttpService(deviceService, configuration.http);
+            metricsExporter.gauge("http.eventStreams", httpService::getEventStreams);
+            services.add(httpService);
+        }
+        if (clusterNode != null) {
+            metricsExporter.gauge("cluster.connectedPeers", clusterNode::getConnectedPeers);
+            metricsExporter.gauge("cluster.droppedFrames", clusterNode::getDroppedFrames);
+            metricsExporter.gauge("cluster.writes", clusterNode::getWrites);
+            metricsExporter.gauge("cluster.writtenFrames", clusterNode::getWrittenFrames);
+            services.add(new ClusterService(clusterNode, deviceService, transmitService, localConnector));
+        }
+        final ServiceManager serviceManager = new ServiceManager(services.build());
         serviceManager.startAsync().awaitHealthy();
+
+        final FileWatcher configurationWatcher = new FileWatcher(Paths.get(args[0]),
+                () -> reloadDevices(args[0], deviceService, metricsExporter));
+        try {
+            configurationWatcher.start();
+        } catch (IOException e) {
+            LOGGER.error("Cannot watch configuration file " + args[0], e);
+        }
         serviceManager.awaitStopped();
+
+        try {
+            configurationWatcher.close();
+        } catch (IOException e) {
+            LOGGER.warn("Cannot stop watching configuration file " + args[0], e);
+        }
+
+        if (capture != null) {
+            try {
+                capture.close();
+            } catch (IOException e) {
+                LOGGER.error("Cannot close capture file " + configuration.captureFile, e);
+            }
+        }
+    }
+
+    private static void registerMetrics(@NotNull final MetricsExporter exporter,
+                                        @NotNull final ESP3Connector connector,
+                                        @NotNull final RadioService radioService,
+                                        @NotNull final DeviceService deviceService,
+                                        @NotNull final RulesService rulesService,
+                                        @NotNull final TransmitService transmitService) {
+        if (connector instanceof TCM310) {
+            final TCM310 tcm310 = (TCM310) connector;
+            exporter.histogram("tcm310.roundTripMicros", tcm310.getRoundTripMicros());
+            exporter.gauge("tcm310.writeQueueDepth", tcm310::getWriteQueueDepth);
+            exporter.gauge("tcm310.droppedFrames", tcm310::getDroppedFrames);
+        } else if (connector instanceof MultiGatewayConnector) {
+            final MultiGatewayConnector multiGateway = (MultiGatewayConnector) connector;
+            exporter.gauge("gateway.duplicateFrames", multiGateway::getDuplicateFrames);
+            exporter.gauge("gateway.droppedFrames", multiGateway::getDroppedFrames);
+        } else if (connector instanceof ReplayConnector) {
+            exporter.gauge("replay.writtenPackets", ((ReplayConnector) connector)::getWrittenPackets);
+        }
+
+        exporter.histogram("radio.decodeMicros", radioService.getDecodeLatencyMicros());
+
+        exporter.histogram("device.routingMicros", deviceService.getRoutingLatencyMicros());
+        exporter.gauge("device.suppressedEvents", deviceService::getSuppressedEvents);
+        exporter.gauge("device.foreignPackets", deviceService::getForeignPackets);
+        for (Map.Entry<EnOceanId, Meter> entry : deviceService.getEventRates().entrySet()) {
+            exporter.meter("device.events." + entry.getKey(), entry.getValue());
+        }
+
+        exporter.histogram("rules.busHopMicros", rulesService.getBusHopLatencyMicros());
+        exporter.histogram("rules.fireMicros", rulesService.getFireLatencyMicros());
+        exporter.histogram("rules.batchSize", rulesService.getBatchSizes());
+        exporter.gauge("rules.queueSize", rulesService::getQueueSize);
+        exporter.gauge("rules.droppedEvents", rulesService::getDroppedEvents);
+        exporter.gauge("rules.coalescedEvents", rulesService::getCoalescedEvents);
+        exporter.gauge("rules.factCount", rulesService::getFactCount);
+        exporter.gauge("rules.retractedFacts", rulesService::getRetractedFacts);
+
+        exporter.histogram("transmit.queueMicros", transmitService.getTimeInQueueMicros());
+        exporter.histogram("transmit.latencyMicros", transmitService.getTransmitLatencyMicros());
+        exporter.gauge("transmit.queueDepth", transmitService::getQueueDepth);
+        exporter.gauge("transmit.mergedCommands", transmitService::getMergedCommands);
+        exporter.gauge("transmit.failedCommands", transmitService::getFailedCommands);
+        exporter.gauge("transmit.droppedRemoteWrites", transmitService::getDroppedRemoteWrites);
+
+        exporter.histogram("pipeline.endToEndMicros", transmitService.getEndToEndLatencyMicros());
+    }
+
+    /**
+     * Applies the remoteDevices and names of a changed configuration file. The other settings
+     * take effect on the next start.
+     */
+    private static void reloadDevices(@NotNull final String filename, @NotNull final DeviceService deviceService,
+                                      @NotNull final MetricsExporter metricsExporter) {
+        final Configuration configuration = parseConfiguration(filename);
+        if (configuration == null) {
+            LOGGER.error("Keeping the current devices");
+            return;
+        }
+        final Set<EnOceanId> previous = ImmutableSet.copyOf(deviceService.getEventRates().keySet());
+        if (!deviceService.updateDevices(configuration.remoteDevices, configuration.names)) {
+            LOGGER.info("No changes to remoteDevices or names in {}", filename);
+            return;
+        }
+        for (EnOceanId enOceanId : previous) {
+            if (!deviceService.getEventRates().containsKey(enOceanId)) {
+                metricsExporter.unregister("Meter", "device.events." + enOceanId);
+            }
+        }
+        for (Map.Entry<EnOceanId, Meter> entry : deviceService.getEventRates().entrySet()) {
+            if (!previous.contains(entry.getKey())) {
+                metricsExporter.meter("device.events." + entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @NotNull
+    private static ClusterNode createClusterNode(@NotNull final ClusterConfiguration configuration) {
+        final Map<String, InetSocketAddress> peers = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : configuration.peers.entrySet()) {
+            final String address = entry.getValue();
+            final int colon = address.lastIndexOf(':');
+            peers.put(entry.getKey(), colon > 0
+                    ? InetSocketAddress.createUnresolved(address.substring(0, colon),
+                            Integer.parseInt(address.substring(colon + 1)))
+                    : InetSocketAddress.createUnresolved(address, ClusterConfiguration.DEFAULT_PORT));
+        }
+        return new ClusterNode(configuration.nodeId, configuration.secret.getBytes(StandardCharsets.UTF_8),
+                new InetSocketAddress(configuration.address, configuration.port), peers);
     }
 
     @Nullable
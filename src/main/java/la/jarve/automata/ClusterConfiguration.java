@@ -0,0 +1,56 @@
+package la.jarve.automata;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableMap;
+
+import org.hibernate.validator.constraints.NotEmpty;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
+public class ClusterConfiguration {
+    public static final String DEFAULT_ADDRESS = "127.0.0.1";
+    public static final int DEFAULT_PORT = 7531;
+
+    @NotNull
+    @NotEmpty
+    public final String nodeId;
+
+    /**
+     * Secret shared by all nodes, which authenticates the connections between them.
+     */
+    @NotNull
+    @NotEmpty
+    public final String secret;
+
+    @NotNull
+    @NotEmpty
+    public final String address;
+
+    @Min(1)
+    @Max(65535)
+    public final int port;
+
+    /**
+     * Addresses of the other nodes as host:port, by their node id.
+     */
+    @NotNull
+    public final Map<String, String> peers;
+
+    @JsonCreator
+    public ClusterConfiguration(@NotNull @JsonProperty("nodeId") final String nodeId,
+                                @NotNull @JsonProperty("secret") final String secret,
+                                @JsonProperty("address") final String address,
+                                @JsonProperty("port") final Integer port,
+                                @JsonProperty("peers") final Map<String, String> peers) {
+        this.nodeId = nodeId;
+        this.secret = secret;
+        this.address = address != null ? address : DEFAULT_ADDRESS;
+        this.port = port != null ? port : DEFAULT_PORT;
+        this.peers = peers != null ? ImmutableMap.copyOf(peers) : ImmutableMap.<String, String>of();
+    }
+}
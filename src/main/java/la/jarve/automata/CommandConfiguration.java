@@ -0,0 +1,24 @@
+package la.jarve.automata;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import org.hibernate.validator.constraints.NotEmpty;
+import org.jetbrains.annotations.NotNull;
+
+import eu.aleon.aleoncean.device.DeviceParameter;
+
+public class CommandConfiguration {
+    @NotEmpty
+    public final String device;
+
+    @NotNull
+    public final DeviceParameter parameter;
+
+    @JsonCreator
+    public CommandConfiguration(@NotNull @JsonProperty("device") final String device,
+                                @NotNull @JsonProperty("parameter") final DeviceParameter parameter) {
+        this.device = device;
+        this.parameter = parameter;
+    }
+}
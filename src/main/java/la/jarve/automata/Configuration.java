@@ -2,18 +2,25 @@ package la.jarve.automata;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Multimap;
 
 import org.hibernate.validator.constraints.NotEmpty;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.List;
 import java.util.Map;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Min;
 
 import eu.aleon.aleoncean.packet.EnOceanId;
+import la.jarve.automata.util.ExecutionMode;
 
 public class Configuration {
+    public static final long DEFAULT_DUPLICATE_WINDOW_MILLIS = 100;
+
     @NotNull
     @NotEmpty
     public final String device;
@@ -21,6 +28,12 @@ public class Configuration {
     @NotNull
     public final EnOceanId senderId;
 
+    @NotNull
+    public final List<String> gateways;
+
+    @Min(0)
+    public final long duplicateWindowMillis;
+
     @NotNull
     @Valid
     public final Multimap<EnOceanId, String> remoteDevices;
@@ -32,16 +45,82 @@ public class Configuration {
     @NotEmpty
     public final String rulesFile;
 
+    @NotNull
+    @Valid
+    public final RulesConfiguration rules;
+
+    @NotNull
+    @Valid
+    public final List<ParameterFilterConfiguration> parameterFilters;
+
+    @NotNull
+    @Valid
+    public final TransmitConfiguration transmit;
+
+    @Nullable
+    @Valid
+    public final TimeSeriesConfiguration timeSeries;
+
+    @Nullable
+    @Valid
+    public final HttpConfiguration http;
+
+    @Nullable
+    @Valid
+    public final StateConfiguration state;
+
+    @Nullable
+    @Valid
+    public final ClusterConfiguration cluster;
+
+    @Nullable
+    public final String captureFile;
+
+    @NotNull
+    public final ExecutionMode executionMode;
+
+    @Nullable
+    @Valid
+    public final ReplayConfiguration replay;
+
     @JsonCreator
     public Configuration(@NotNull @JsonProperty("device") final String device,
                          @NotNull @JsonProperty("senderId") final EnOceanId senderId,
+                         @JsonProperty("gateways") final List<String> gateways,
+                         @JsonProperty("duplicateWindowMillis") final Long duplicateWindowMillis,
                          @NotNull @JsonProperty("remoteDevices") final Multimap<EnOceanId, String> remoteDevices,
                          @NotNull @JsonProperty("names") final Map<String, EnOceanId> names,
-                         @NotNull @JsonProperty("rulesFile") final String rulesFile) {
+                         @NotNull @JsonProperty("rulesFile") final String rulesFile,
+                         @JsonProperty("rules") final RulesConfiguration rules,
+                         @JsonProperty("parameterFilters") final List<ParameterFilterConfiguration> parameterFilters,
+                         @JsonProperty("transmit") final TransmitConfiguration transmit,
+                         @JsonProperty("timeSeries") final TimeSeriesConfiguration timeSeries,
+                         @JsonProperty("http") final HttpConfiguration http,
+                         @JsonProperty("state") final StateConfiguration state,
+                         @JsonProperty("cluster") final ClusterConfiguration cluster,
+                         @JsonProperty("captureFile") final String captureFile,
+                         @JsonProperty("replay") final ReplayConfiguration replay,
+                         @JsonProperty("executionMode") final ExecutionMode executionMode) {
         this.device = device;
         this.senderId = senderId;
+        this.gateways = gateways != null ? ImmutableList.copyOf(gateways) : ImmutableList.<String>of();
+        this.duplicateWindowMillis = duplicateWindowMillis != null
+                ? duplicateWindowMillis
+                : DEFAULT_DUPLICATE_WINDOW_MILLIS;
         this.remoteDevices = remoteDevices;
         this.names = names;
         this.rulesFile = rulesFile;
+        this.rules = rules != null ? rules : RulesConfiguration.defaults();
+        this.parameterFilters = parameterFilters != null
+                ? ImmutableList.copyOf(parameterFilters)
+                : ImmutableList.<ParameterFilterConfiguration>of();
+        this.transmit = transmit != null ? transmit : TransmitConfiguration.defaults();
+        this.timeSeries = timeSeries;
+        this.http = http;
+        this.state = state;
+        this.cluster = cluster;
+        this.captureFile = captureFile;
+        this.replay = replay;
+        this.executionMode = executionMode != null ? executionMode : ExecutionMode.PLATFORM;
     }
 }
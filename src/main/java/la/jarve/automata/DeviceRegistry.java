@@ -1,27 +1,44 @@
 package la.jarve.automata;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import eu.aleon.aleoncean.device.DeviceFactory;
 import eu.aleon.aleoncean.device.StandardDevice;
+import la.jarve.enocean.device.DeviceConstructor;
+import la.jarve.enocean.device.DeviceConstructors;
 
+/**
+ * Device constructors by type. The devices annotated with DeviceType are registered at build
+ * time; the types of aleoncean are looked up from its DeviceFactory and created reflectively.
+ */
 public class DeviceRegistry {
-    final Map<String, Class<? extends StandardDevice>> typeDeviceMap = new HashMap<>();
+    final Map<String, DeviceConstructor> typeDeviceMap = new ConcurrentHashMap<>(DeviceConstructors.create());
 
-    public void registerDevice(@NotNull final String type,
-                               @NotNull final Class<? extends StandardDevice> deviceClass) {
-        typeDeviceMap.put(type, deviceClass);
+    public void registerDevice(@NotNull final String type, @NotNull final DeviceConstructor constructor) {
+        typeDeviceMap.put(type, constructor);
     }
 
-    public Class<? extends StandardDevice> getClassByType(@NotNull final String type) {
-        final Class<? extends StandardDevice> deviceClass = typeDeviceMap.get(type);
-        if (deviceClass != null) {
-            return deviceClass;
+    /**
+     * @return constructor of the type, or null for an unknown type
+     */
+    @Nullable
+    public DeviceConstructor getConstructorByType(@NotNull final String type) {
+        final DeviceConstructor constructor = typeDeviceMap.get(type);
+        if (constructor != null) {
+            return constructor;
         }
 
-        return DeviceFactory.getClassForType(type);
+        final Class<? extends StandardDevice> deviceClass = DeviceFactory.getClassForType(type);
+        if (deviceClass == null) {
+            return null;
+        }
+        final DeviceConstructor reflective = (conn, addressRemote, addressLocal) ->
+                DeviceFactory.createFromClass(deviceClass, conn, addressRemote, addressLocal);
+        typeDeviceMap.put(type, reflective);
+        return reflective;
     }
 }
@@ -0,0 +1,42 @@
+package la.jarve.automata;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import org.hibernate.validator.constraints.NotEmpty;
+import org.jetbrains.annotations.NotNull;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
+public class HttpConfiguration {
+    public static final String DEFAULT_ADDRESS = "127.0.0.1";
+    public static final int DEFAULT_PORT = 8080;
+    public static final int DEFAULT_MAX_CLIENTS = 16;
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 60 * 1000;
+
+    @NotNull
+    @NotEmpty
+    public final String address;
+
+    @Min(1)
+    @Max(65535)
+    public final int port;
+
+    @Min(1)
+    public final int maxClients;
+
+    @Min(0)
+    public final long maxWaitMillis;
+
+    @JsonCreator
+    public HttpConfiguration(@JsonProperty("address") final String address,
+                             @JsonProperty("port") final Integer port,
+                             @JsonProperty("maxClients") final Integer maxClients,
+                             @JsonProperty("maxWaitMillis") final Long maxWaitMillis) {
+        this.address = address != null ? address : DEFAULT_ADDRESS;
+        this.port = port != null ? port : DEFAULT_PORT;
+        this.maxClients = maxClients != null ? maxClients : DEFAULT_MAX_CLIENTS;
+        this.maxWaitMillis = maxWaitMillis != null ? maxWaitMillis : DEFAULT_MAX_WAIT_MILLIS;
+    }
+}
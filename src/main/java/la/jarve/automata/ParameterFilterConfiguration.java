@@ -0,0 +1,42 @@
+package la.jarve.automata;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.validation.constraints.Min;
+
+import eu.aleon.aleoncean.device.DeviceParameter;
+import la.jarve.automata.core.FilterMode;
+
+public class ParameterFilterConfiguration {
+    @Nullable
+    public final String device;
+
+    @NotNull
+    public final DeviceParameter parameter;
+
+    @NotNull
+    public final FilterMode mode;
+
+    @Min(0)
+    public final double threshold;
+
+    @Min(0)
+    public final long intervalMillis;
+
+    @JsonCreator
+    public ParameterFilterConfiguration(@JsonProperty("device") final String device,
+                                        @NotNull @JsonProperty("parameter") final DeviceParameter parameter,
+                                        @JsonProperty("mode") final FilterMode mode,
+                                        @JsonProperty("threshold") final Double threshold,
+                                        @JsonProperty("intervalMillis") final Long intervalMillis) {
+        this.device = device;
+        this.parameter = parameter;
+        this.mode = mode != null ? mode : FilterMode.UNCHANGED;
+        this.threshold = threshold != null ? threshold : 0;
+        this.intervalMillis = intervalMillis != null ? intervalMillis : 0;
+    }
+}
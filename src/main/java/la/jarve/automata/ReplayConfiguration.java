@@ -0,0 +1,31 @@
+package la.jarve.automata;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import org.hibernate.validator.constraints.NotEmpty;
+import org.jetbrains.annotations.NotNull;
+
+import javax.validation.constraints.Min;
+
+public class ReplayConfiguration {
+    public static final double DEFAULT_SPEED = 1;
+
+    @NotNull
+    @NotEmpty
+    public final String file;
+
+    @Min(0)
+    public final double speed;
+
+    public final boolean loop;
+
+    @JsonCreator
+    public ReplayConfiguration(@NotNull @JsonProperty("file") final String file,
+                               @JsonProperty("speed") final Double speed,
+                               @JsonProperty("loop") final Boolean loop) {
+        this.file = file;
+        this.speed = speed != null ? speed : DEFAULT_SPEED;
+        this.loop = loop != null && loop;
+    }
+}
@@ -0,0 +1,74 @@
+package la.jarve.automata;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableMap;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+
+import la.jarve.automata.rules.OverflowPolicy;
+import la.jarve.automata.rules.RulesEngineType;
+
+public class RulesConfiguration {
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    public static final long DEFAULT_BATCH_LINGER_MILLIS = 10;
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    public static final long DEFAULT_MAX_FACT_AGE_MILLIS = 24 * 60 * 60 * 1000;
+    public static final int DEFAULT_MAX_FACT_COUNT = 10000;
+
+    @Min(1)
+    public final int batchSize;
+
+    @Min(0)
+    public final long batchLingerMillis;
+
+    @Min(1)
+    public final int queueCapacity;
+
+    @NotNull
+    public final OverflowPolicy overflowPolicy;
+
+    @Min(1)
+    public final long maxFactAgeMillis;
+
+    @Min(1)
+    public final int maxFactCount;
+
+    @NotNull
+    public final RulesEngineType engine;
+
+    /**
+     * DeviceCommands by the name of the global the rules use them as.
+     */
+    @NotNull
+    @Valid
+    public final Map<String, CommandConfiguration> commands;
+
+    @JsonCreator
+    public RulesConfiguration(@JsonProperty("batchSize") final Integer batchSize,
+                              @JsonProperty("batchLingerMillis") final Long batchLingerMillis,
+                              @JsonProperty("queueCapacity") final Integer queueCapacity,
+                              @JsonProperty("overflowPolicy") final OverflowPolicy overflowPolicy,
+                              @JsonProperty("maxFactAgeMillis") final Long maxFactAgeMillis,
+                              @JsonProperty("maxFactCount") final Integer maxFactCount,
+                              @JsonProperty("engine") final RulesEngineType engine,
+                              @JsonProperty("commands") final Map<String, CommandConfiguration> commands) {
+        this.batchSize = batchSize != null ? batchSize : DEFAULT_BATCH_SIZE;
+        this.batchLingerMillis = batchLingerMillis != null ? batchLingerMillis : DEFAULT_BATCH_LINGER_MILLIS;
+        this.queueCapacity = queueCapacity != null ? queueCapacity : DEFAULT_QUEUE_CAPACITY;
+        this.overflowPolicy = overflowPolicy != null ? overflowPolicy : OverflowPolicy.BLOCK;
+        this.maxFactAgeMillis = maxFactAgeMillis != null ? maxFactAgeMillis : DEFAULT_MAX_FACT_AGE_MILLIS;
+        this.maxFactCount = maxFactCount != null ? maxFactCount : DEFAULT_MAX_FACT_COUNT;
+        this.engine = engine != null ? engine : RulesEngineType.DROOLS;
+        this.commands = commands != null ? ImmutableMap.copyOf(commands) : ImmutableMap.<String, CommandConfiguration>of();
+    }
+
+    public static RulesConfiguration defaults() {
+        return new RulesConfiguration(null, null, null, null, null, null, null, null);
+    }
+}
@@ -0,0 +1,27 @@
+package la.jarve.automata;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import org.hibernate.validator.constraints.NotEmpty;
+import org.jetbrains.annotations.NotNull;
+
+import javax.validation.constraints.Min;
+
+public class StateConfiguration {
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10 * 1000;
+
+    @NotNull
+    @NotEmpty
+    public final String file;
+
+    @Min(1)
+    public final long flushIntervalMillis;
+
+    @JsonCreator
+    public StateConfiguration(@NotNull @JsonProperty("file") final String file,
+                              @JsonProperty("flushIntervalMillis") final Long flushIntervalMillis) {
+        this.file = file;
+        this.flushIntervalMillis = flushIntervalMillis != null ? flushIntervalMillis : DEFAULT_FLUSH_INTERVAL_MILLIS;
+    }
+}
@@ -0,0 +1,51 @@
+package la.jarve.automata;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+
+import org.hibernate.validator.constraints.NotEmpty;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+import javax.validation.constraints.Min;
+
+import eu.aleon.aleoncean.device.DeviceParameter;
+
+public class TimeSeriesConfiguration {
+    public static final List<DeviceParameter> DEFAULT_PARAMETERS =
+            ImmutableList.of(DeviceParameter.POWER_W, DeviceParameter.ENERGY_WS);
+    public static final int DEFAULT_RAW_SAMPLES = 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 5 * 60 * 1000;
+    public static final int DEFAULT_SEGMENT_BYTES = 1024 * 1024;
+
+    @NotNull
+    @NotEmpty
+    public final String file;
+
+    @NotNull
+    public final List<DeviceParameter> parameters;
+
+    @Min(1)
+    public final int rawSamples;
+
+    @Min(1)
+    public final long flushIntervalMillis;
+
+    @Min(4096)
+    public final int segmentBytes;
+
+    @JsonCreator
+    public TimeSeriesConfiguration(@NotNull @JsonProperty("file") final String file,
+                                   @JsonProperty("parameters") final List<DeviceParameter> parameters,
+                                   @JsonProperty("rawSamples") final Integer rawSamples,
+                                   @JsonProperty("flushIntervalMillis") final Long flushIntervalMillis,
+                                   @JsonProperty("segmentBytes") final Integer segmentBytes) {
+        this.file = file;
+        this.parameters = parameters != null ? ImmutableList.copyOf(parameters) : DEFAULT_PARAMETERS;
+        this.rawSamples = rawSamples != null ? rawSamples : DEFAULT_RAW_SAMPLES;
+        this.flushIntervalMillis = flushIntervalMillis != null ? flushIntervalMillis : DEFAULT_FLUSH_INTERVAL_MILLIS;
+        this.segmentBytes = segmentBytes != null ? segmentBytes : DEFAULT_SEGMENT_BYTES;
+    }
+}
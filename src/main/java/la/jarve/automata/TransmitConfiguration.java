@@ -0,0 +1,41 @@
+package la.jarve.automata;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
+public class TransmitConfiguration {
+    // EU 868 MHz short range devices are limited to 1% duty cycle per hour
+    public static final double DEFAULT_DUTY_CYCLE_PERCENT = 1;
+    public static final long DEFAULT_DUTY_CYCLE_WINDOW_MILLIS = 60 * 60 * 1000;
+    public static final double DEFAULT_AIRTIME_MILLIS_PER_COMMAND = 5;
+
+    @Min(0)
+    @Max(100)
+    public final double dutyCyclePercent;
+
+    @Min(1)
+    public final long dutyCycleWindowMillis;
+
+    @Min(0)
+    public final double airtimeMillisPerCommand;
+
+    @JsonCreator
+    public TransmitConfiguration(@JsonProperty("dutyCyclePercent") final Double dutyCyclePercent,
+                                 @JsonProperty("dutyCycleWindowMillis") final Long dutyCycleWindowMillis,
+                                 @JsonProperty("airtimeMillisPerCommand") final Double airtimeMillisPerCommand) {
+        this.dutyCyclePercent = dutyCyclePercent != null ? dutyCyclePercent : DEFAULT_DUTY_CYCLE_PERCENT;
+        this.dutyCycleWindowMillis = dutyCycleWindowMillis != null
+                ? dutyCycleWindowMillis
+                : DEFAULT_DUTY_CYCLE_WINDOW_MILLIS;
+        this.airtimeMillisPerCommand = airtimeMillisPerCommand != null
+                ? airtimeMillisPerCommand
+                : DEFAULT_AIRTIME_MILLIS_PER_COMMAND;
+    }
+
+    public static TransmitConfiguration defaults() {
+        return new TransmitConfiguration(null, null, null);
+    }
+}
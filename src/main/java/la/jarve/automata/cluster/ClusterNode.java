@@ -0,0 +1,723 @@
+package la.jarve.automata.cluster;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import eu.aleon.aleoncean.device.DeviceParameter;
+import la.jarve.automata.util.Threads;
+import la.jarve.automata.util.ValueCodec;
+
+/**
+ * Links this Automata node to the other nodes over TCP, with a single selector thread.
+ *
+ * Every frame is an int length, a type byte and the body. A connection starts with a HELLO
+ * from each side carrying a random nonce and the node id, answered by an AUTH carrying the
+ * HMAC-SHA256 under the shared secret of the role of the sender, dialer or acceptor, both
+ * nonces and both node ids. As the MAC covers the nonce of the receiver and the role of the
+ * sender, an AUTH cannot be relayed from another connection. No other frame is accepted
+ * before the peer has authenticated. The rest are RADIO frames with the raw ESP3 packets a node received,
+ * WRITE frames with raw ESP3 packets for the receiving node to transmit, and PARAMETER frames
+ * with a device id, parameter name and value. Frames queued while the selector thread is busy
+ * are written to a connection together, so a burst of packets costs a single write.
+ *
+ * Peer addresses are resolved and the listener is called on threads of their own, so neither
+ * a slow DNS lookup nor a slow listener holds up the selector thread.
+ *
+ * Only one connection is kept per peer. When two nodes dial each other at the same time, the
+ * connection dialed by the node with the smaller id wins.
+ */
+public class ClusterNode implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClusterNode.class);
+
+    private static final byte TYPE_HELLO = 1;
+    private static final byte TYPE_RADIO = 2;
+    private static final byte TYPE_WRITE = 3;
+    private static final byte TYPE_PARAMETER = 4;
+    private static final byte TYPE_AUTH = 5;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final byte ROLE_DIALER = 'D';
+    private static final byte ROLE_ACCEPTOR = 'A';
+    private static final int NONCE_BYTES = 16;
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final int MAX_FRAME_BYTES = BUFFER_BYTES - 4;
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final long RECONNECT_MILLIS = 5000;
+    private static final long SELECT_TIMEOUT_MILLIS = 1000;
+
+    public interface Listener {
+        /**
+         * A peer asks this node to transmit a raw ESP3 packet. Called on the listener thread,
+         * in the order of the frames.
+         */
+        void onWrite(@NotNull String nodeId, @NotNull byte[] packet);
+
+        /**
+         * A parameter of a device of a peer changed. Called on the listener thread, in the
+         * order of the frames.
+         */
+        void onParameter(@NotNull String nodeId, int device, @NotNull DeviceParameter parameter,
+                         @NotNull Object value);
+    }
+
+    @NotNull
+    private final String nodeId;
+    @Nullable
+    private final InetSocketAddress address;
+    @NotNull
+    private final Map<String, Peer> peers;
+    // Only used on the selector thread
+    private final Mac mac;
+    private final SecureRandom random = new SecureRandom();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong writtenFrames = new AtomicLong();
+    private volatile Listener listener;
+    private volatile boolean running;
+    private Selector selector;
+    private ServerSocketChannel server;
+    private Thread thread;
+    private ExecutorService callbacks;
+    private ExecutorService resolver;
+
+    /**
+     * @param secret  secret shared by all nodes of the cluster
+     * @param address address to accept peers on, or null to only dial the peers
+     * @param peers   addresses of the peers by their node id, resolved again on every connect
+     */
+    public ClusterNode(@NotNull final String nodeId, @NotNull final byte[] secret,
+                       @Nullable final InetSocketAddress address, @NotNull final Map<String, InetSocketAddress> peers) {
+        Preconditions.checkArgument(!peers.containsKey(nodeId), "Node %s is its own peer", nodeId);
+        Preconditions.checkArgument(secret.length > 0, "Empty cluster secret");
+        this.nodeId = nodeId;
+        try {
+            this.mac = Mac.getInstance(MAC_ALGORITHM);
+            this.mac.init(new SecretKeySpec(secret, MAC_ALGORITHM));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot authenticate cluster connections", e);
+        }
+        this.address = address;
+        final ImmutableMap.Builder<String, Peer> builder = ImmutableMap.builder();
+        for (Map.Entry<String, InetSocketAddress> entry : peers.entrySet()) {
+            builder.put(entry.getKey(), new Peer(entry.getKey(), entry.getValue(),
+                    new PeerConnector(this, entry.getKey())));
+        }
+        this.peers = builder.build();
+    }
+
+    public void setListener(@Nullable final Listener listener) {
+        this.listener = listener;
+    }
+
+    @NotNull
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @NotNull
+    public Collection<String> getPeers() {
+        return peers.keySet();
+    }
+
+    /**
+     * Connector which reads the radio packets received by a peer and writes through it.
+     */
+    @NotNull
+    public PeerConnector connectorFor(@NotNull final String peerId) {
+        final Peer peer = peers.get(peerId);
+        Preconditions.checkArgument(peer != null, "Unknown peer %s", peerId);
+        return peer.connector;
+    }
+
+    public int getConnectedPeers() {
+        int connected = 0;
+        for (Peer peer : peers.values()) {
+            if (peer.connection != null) {
+                connected++;
+            }
+        }
+        return connected;
+    }
+
+    /**
+     * Number of frames dropped because the peer was not connected or fell behind, or because
+     * the listener fell behind.
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    /**
+     * Number of socket writes, each of which carries one or more frames.
+     */
+    public long getWrites() {
+        return writes.get();
+    }
+
+    public long getWrittenFrames() {
+        return writtenFrames.get();
+    }
+
+    public void start() throws IOException {
+        Preconditions.checkState(!running);
+        selector = Selector.open();
+        if (address != null) {
+            server = ServerSocketChannel.open();
+            server.configureBlocking(false);
+            server.bind(address);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            LOGGER.info("Cluster node {} listening on {}", nodeId, server.getLocalAddress());
+        }
+        callbacks = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), task -> Threads.newThread("cluster-listener-" + nodeId, task));
+        resolver = Executors.newSingleThreadExecutor(task -> Threads.newThread("cluster-resolver-" + nodeId, task));
+        running = true;
+        thread = Threads.newThread("cluster-" + nodeId, this::run);
+        thread.start();
+    }
+
+    /**
+     * Address the node accepts peers on, once started.
+     */
+    @Nullable
+    public InetSocketAddress getLocalAddress() throws IOException {
+        return server != null ? (InetSocketAddress) server.getLocalAddress() : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(2 * SELECT_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+        callbacks.shutdown();
+        resolver.shutdownNow();
+        for (Peer peer : peers.values()) {
+            peer.connection = null;
+            peer.dialing = null;
+            peer.resolved = null;
+            peer.resolving = false;
+            peer.outbound.clear();
+            peer.queued.set(0);
+        }
+    }
+
+    public void broadcastRadio(@NotNull final byte[] packet) {
+        final byte[] frame = frame(TYPE_RADIO, packet);
+        for (Peer peer : peers.values()) {
+            send(peer, frame);
+        }
+    }
+
+    public void broadcastParameter(final int device, @NotNull final DeviceParameter parameter,
+                                   @NotNull final Object value) {
+        final ByteBuffer body = ByteBuffer.allocate(4 + 256 + ValueCodec.MAX_VALUE_BYTES);
+        body.putInt(device);
+        ValueCodec.putString(body, parameter.name());
+        ValueCodec.putValue(body, value);
+        final byte[] frame = frame(TYPE_PARAMETER, body.array(), body.position());
+        for (Peer peer : peers.values()) {
+            send(peer, frame);
+        }
+    }
+
+    public void sendWrite(@NotNull final String peerId, @NotNull final byte[] packet) {
+        final Peer peer = peers.get(peerId);
+        Preconditions.checkArgument(peer != null, "Unknown peer %s", peerId);
+        send(peer, frame(TYPE_WRITE, packet));
+    }
+
+    private void send(@NotNull final Peer peer, @NotNull final byte[] frame) {
+        if (peer.connection == null) {
+            droppedFrames.incrementAndGet();
+            return;
+        }
+        if (peer.queued.incrementAndGet() > QUEUE_CAPACITY) {
+            peer.queued.decrementAndGet();
+            droppedFrames.incrementAndGet();
+            return;
+        }
+        peer.outbound.add(frame);
+        if (wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    @NotNull
+    private static byte[] frame(final byte type, @NotNull final byte[] body) {
+        return frame(type, body, body.length);
+    }
+
+    @NotNull
+    private static byte[] frame(final byte type, @NotNull final byte[] body, final int length) {
+        Preconditions.checkArgument(length < MAX_FRAME_BYTES, "Frame of %s bytes is too large", length);
+        return ByteBuffer.allocate(4 + 1 + length).putInt(1 + length).put(type).put(body, 0, length).array();
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                dialPeers();
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                wakeupPending.set(false);
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+                for (Peer peer : peers.values()) {
+                    final Connection connection = peer.connection;
+                    if (connection != null && !peer.outbound.isEmpty()) {
+                        try {
+                            flush(connection);
+                        } catch (IOException | RuntimeException e) {
+                            failed(connection, e);
+                        }
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                LOGGER.error("Cluster node " + nodeId + " stopped", e);
+            }
+        }
+    }
+
+    /**
+     * Dials the peers whose address got resolved, and has the address of the disconnected
+     * ones resolved again once their reconnect delay passed.
+     */
+    private void dialPeers() {
+        final long now = System.currentTimeMillis();
+        for (Peer peer : peers.values()) {
+            if (peer.connection != null || peer.dialing != null) {
+                continue;
+            }
+            final InetSocketAddress address = peer.resolved;
+            if (address != null) {
+                peer.resolved = null;
+                dial(peer, address);
+            } else if (!peer.resolving && now >= peer.nextDialMillis) {
+                peer.nextDialMillis = now + RECONNECT_MILLIS;
+                peer.resolving = true;
+                resolver.execute(() -> resolve(peer));
+            }
+        }
+    }
+
+    /**
+     * Looks up the address of the peer, on the resolver thread.
+     */
+    private void resolve(@NotNull final Peer peer) {
+        final InetSocketAddress address = new InetSocketAddress(peer.address.getHostString(),
+                peer.address.getPort());
+        if (address.isUnresolved()) {
+            LOGGER.debug("Cannot resolve peer {} at {}", peer.nodeId, peer.address);
+        } else {
+            peer.resolved = address;
+        }
+        peer.resolving = false;
+        selector.wakeup();
+    }
+
+    private void dial(@NotNull final Peer peer, @NotNull final InetSocketAddress address) {
+        try {
+            final SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            final Connection connection = new Connection(channel, peer, true, newNonce());
+            peer.dialing = connection;
+            channel.register(selector, SelectionKey.OP_CONNECT, connection);
+            if (channel.connect(address)) {
+                connected(connection);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Cannot connect to peer {}: {}", peer.nodeId, e.getMessage());
+            close(peer.dialing);
+        }
+    }
+
+    private void handle(@NotNull final SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            accept();
+            return;
+        }
+        final Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isConnectable() && connection.channel.finishConnect()) {
+                connected(connection);
+            }
+            if (key.isValid() && key.isReadable()) {
+                read(connection);
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush(connection);
+            }
+        } catch (IOException | RuntimeException e) {
+            failed(connection, e);
+        }
+    }
+
+    /**
+     * Closes a connection which failed or sent a malformed frame, the other connections go on.
+     */
+    private void failed(@NotNull final Connection connection, @NotNull final Exception e) {
+        if (e instanceof IOException) {
+            LOGGER.debug("Connection to {} failed: {}", connection.describe(), e.getMessage());
+        } else {
+            LOGGER.warn("Closing connection to " + connection.describe() + " after an invalid frame", e);
+        }
+        close(connection);
+    }
+
+    private void accept() {
+        try {
+            final SocketChannel channel = server.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            final Connection connection = new Connection(channel, null, false, newNonce());
+            channel.register(selector, SelectionKey.OP_READ, connection);
+            sendHello(connection);
+        } catch (IOException e) {
+            LOGGER.warn("Cannot accept peer: {}", e.getMessage());
+        }
+    }
+
+    private void connected(@NotNull final Connection connection) throws IOException {
+        connection.channel.keyFor(selector).interestOps(SelectionKey.OP_READ);
+        sendHello(connection);
+    }
+
+    private void sendHello(@NotNull final Connection connection) throws IOException {
+        final byte[] id = nodeId.getBytes(StandardCharsets.UTF_8);
+        connection.out.put(frame(TYPE_HELLO, ByteBuffer.allocate(NONCE_BYTES + id.length)
+                .put(connection.nonce).put(id).array()));
+        flush(connection);
+    }
+
+    @NotNull
+    private byte[] newNonce() {
+        final byte[] nonce = new byte[NONCE_BYTES];
+        random.nextBytes(nonce);
+        return nonce;
+    }
+
+    /**
+     * Proof that the dialer or the acceptor of the connection knows the secret, bound to both
+     * nonces and node ids of the connection.
+     */
+    @NotNull
+    private byte[] authenticator(@NotNull final Connection connection, final boolean byDialer) {
+        final String remoteId = connection.peer.nodeId;
+        mac.update(byDialer ? ROLE_DIALER : ROLE_ACCEPTOR);
+        mac.update(connection.dialer ? connection.nonce : connection.remoteNonce);
+        mac.update(connection.dialer ? connection.remoteNonce : connection.nonce);
+        updateMac(connection.dialer ? nodeId : remoteId);
+        updateMac(connection.dialer ? remoteId : nodeId);
+        return mac.doFinal();
+    }
+
+    private void updateMac(@NotNull final String id) {
+        final byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        mac.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+        mac.update(bytes);
+    }
+
+    /**
+     * Writes the pending frames, as many as fit in the buffer, with one write.
+     */
+    private void flush(@NotNull final Connection connection) throws IOException {
+        final Peer peer = connection.peer;
+        int frames = 0;
+        if (peer != null && peer.connection == connection) {
+            byte[] frame;
+            while ((frame = peer.outbound.peek()) != null && connection.out.remaining() >= frame.length) {
+                connection.out.put(peer.outbound.poll());
+                peer.queued.decrementAndGet();
+                frames++;
+            }
+        }
+        connection.out.flip();
+        if (connection.out.hasRemaining()) {
+            connection.channel.write(connection.out);
+            writes.incrementAndGet();
+            writtenFrames.addAndGet(frames);
+        }
+        final boolean pending = connection.out.hasRemaining();
+        connection.out.compact();
+        final SelectionKey key = connection.channel.keyFor(selector);
+        if (key != null && key.isValid() && (key.interestOps() & SelectionKey.OP_CONNECT) == 0) {
+            key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+    }
+
+    private void read(@NotNull final Connection connection) throws IOException {
+        if (connection.channel.read(connection.in) < 0) {
+            LOGGER.info("Peer {} disconnected", connection.describe());
+            close(connection);
+            return;
+        }
+        final ByteBuffer in = connection.in;
+        in.flip();
+        while (in.remaining() >= 4) {
+            final int length = in.getInt(in.position());
+            if (length < 1 || length > MAX_FRAME_BYTES) {
+                throw new IOException("Invalid frame length " + length);
+            }
+            if (in.remaining() < 4 + length) {
+                break;
+            }
+            in.getInt();
+            final byte type = in.get();
+            final ByteBuffer body = in.slice();
+            body.limit(length - 1);
+            in.position(in.position() + length - 1);
+            onFrame(connection, type, body);
+            if (!connection.channel.isOpen()) {
+                return;
+            }
+        }
+        in.compact();
+    }
+
+    private void onFrame(@NotNull final Connection connection, final byte type, @NotNull final ByteBuffer body)
+            throws IOException {
+        if (type == TYPE_HELLO) {
+            onHello(connection, body);
+            return;
+        }
+        if (type == TYPE_AUTH) {
+            onAuth(connection, body);
+            return;
+        }
+        final Peer peer = connection.peer;
+        if (peer == null || peer.connection != connection) {
+            throw new IOException("Frame before authentication");
+        }
+        final Listener current = listener;
+        switch (type) {
+            case TYPE_RADIO:
+                peer.connector.offer(toArray(body));
+                break;
+            case TYPE_WRITE:
+                final byte[] packet = toArray(body);
+                if (current != null) {
+                    dispatch(() -> current.onWrite(peer.nodeId, packet));
+                }
+                break;
+            case TYPE_PARAMETER:
+                final int device = body.getInt();
+                final String name = ValueCodec.getString(body);
+                final DeviceParameter parameter;
+                try {
+                    parameter = DeviceParameter.valueOf(name);
+                } catch (IllegalArgumentException e) {
+                    LOGGER.warn("Ignoring unknown parameter {} from {}", name, peer.nodeId);
+                    break;
+                }
+                final Object value = ValueCodec.getValue(body, parameter);
+                if (current != null && value != null) {
+                    dispatch(() -> current.onParameter(peer.nodeId, device, parameter, value));
+                }
+                break;
+            default:
+                LOGGER.warn("Ignoring frame of unknown type {} from {}", type, peer.nodeId);
+                break;
+        }
+    }
+
+    /**
+     * Runs a listener call on the listener thread, dropping it when the listener fell behind.
+     */
+    private void dispatch(@NotNull final Runnable call) {
+        try {
+            callbacks.execute(() -> {
+                try {
+                    call.run();
+                } catch (RuntimeException e) {
+                    LOGGER.error("Cluster listener failed", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            droppedFrames.incrementAndGet();
+            LOGGER.warn("Cluster listener of {} fell behind, dropping a frame", nodeId);
+        }
+    }
+
+    private void onHello(@NotNull final Connection connection, @NotNull final ByteBuffer body) throws IOException {
+        if (connection.hello || body.remaining() < NONCE_BYTES) {
+            throw new IOException("Unexpected HELLO");
+        }
+        final byte[] remoteNonce = new byte[NONCE_BYTES];
+        body.get(remoteNonce);
+        final String remoteId = new String(toArray(body), StandardCharsets.UTF_8);
+        final Peer peer = peers.get(remoteId);
+        if (peer == null || (connection.peer != null && connection.peer != peer)) {
+            throw new IOException("Unexpected node " + remoteId);
+        }
+        connection.peer = peer;
+        connection.remoteNonce = remoteNonce;
+        connection.hello = true;
+        connection.out.put(frame(TYPE_AUTH, authenticator(connection, connection.dialer)));
+        flush(connection);
+    }
+
+    private void onAuth(@NotNull final Connection connection, @NotNull final ByteBuffer body) throws IOException {
+        final Peer peer = connection.peer;
+        if (!connection.hello || connection.authenticated) {
+            throw new IOException("Unexpected AUTH");
+        }
+        if (!MessageDigest.isEqual(toArray(body), authenticator(connection, !connection.dialer))) {
+            throw new IOException("Node " + peer.nodeId + " failed to authenticate");
+        }
+        connection.authenticated = true;
+        final String remoteId = peer.nodeId;
+        if (peer.dialing == connection) {
+            peer.dialing = null;
+        }
+        final Connection existing = peer.connection;
+        if (existing != null && existing != connection) {
+            // Both nodes dialed, keep the connection dialed by the smaller node id
+            final String dialer = connection.dialer ? nodeId : remoteId;
+            final String existingDialer = existing.dialer ? nodeId : remoteId;
+            if (existingDialer.compareTo(dialer) <= 0) {
+                close(connection);
+                return;
+            }
+            close(existing);
+        }
+        peer.connection = connection;
+        LOGGER.info("Connected to peer {} at {}", remoteId, connection.channel.getRemoteAddress());
+    }
+
+    private void close(@Nullable final Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        final SelectionKey key = connection.channel.keyFor(selector);
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            LOGGER.debug("Cannot close connection to {}", connection.describe());
+        }
+        final Peer peer = connection.peer;
+        if (peer != null) {
+            if (peer.dialing == connection) {
+                peer.dialing = null;
+            }
+            if (peer.connection == connection) {
+                peer.connection = null;
+                peer.outbound.clear();
+                peer.queued.set(0);
+            }
+        }
+    }
+
+    @NotNull
+    private static byte[] toArray(@NotNull final ByteBuffer body) {
+        final byte[] bytes = new byte[body.remaining()];
+        body.get(bytes);
+        return bytes;
+    }
+
+    private static final class Peer {
+        private final String nodeId;
+        private final InetSocketAddress address;
+        private final PeerConnector connector;
+        private final Queue<byte[]> outbound = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queued = new AtomicInteger();
+        private volatile Connection connection;
+        private volatile InetSocketAddress resolved;
+        private volatile boolean resolving;
+        private Connection dialing;
+        private long nextDialMillis;
+
+        private Peer(final String nodeId, final InetSocketAddress address, final PeerConnector connector) {
+            this.nodeId = nodeId;
+            this.address = address;
+            this.connector = connector;
+        }
+    }
+
+    private static final class Connection {
+        private final SocketChannel channel;
+        private final ByteBuffer in = ByteBuffer.allocate(BUFFER_BYTES);
+        private final ByteBuffer out = ByteBuffer.allocate(BUFFER_BYTES);
+        private final boolean dialer;
+        private final byte[] nonce;
+        private byte[] remoteNonce;
+        private Peer peer;
+        private boolean hello;
+        private boolean authenticated;
+
+        private Connection(final SocketChannel channel, final Peer peer, final boolean dialer, final byte[] nonce) {
+            this.channel = channel;
+            this.peer = peer;
+            this.dialer = dialer;
+            this.nonce = nonce;
+        }
+
+        private String describe() {
+            return peer != null ? peer.nodeId : String.valueOf(channel.socket().getRemoteSocketAddress());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package la.jarve.automata.cluster;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
+import eu.aleon.aleoncean.packet.ESP3Packet;
+import eu.aleon.aleoncean.packet.RadioPacket;
+import eu.aleon.aleoncean.packet.ResponsePacket;
+import eu.aleon.aleoncean.rxtx.ESP3Connector;
+import eu.aleon.aleoncean.rxtx.ReaderShutdownException;
+import la.jarve.enocean.rxtx.TimestampedESP3Connector;
+
+/**
+ * Local gateway whose received radio packets are also sent to the peer nodes. Only local
+ * gateways are wrapped, so packets from peers are never forwarded again.
+ */
+public class ForwardingConnector implements TimestampedESP3Connector {
+
+    @NotNull
+    private final ESP3Connector connector;
+    @NotNull
+    private final ClusterNode node;
+
+    public ForwardingConnector(@NotNull final ESP3Connector connector, @NotNull final ClusterNode node) {
+        this.connector = connector;
+        this.node = node;
+    }
+
+    @NotNull
+    public ESP3Connector getConnector() {
+        return connector;
+    }
+
+    @Override
+    public boolean connect(@Nullable final String device) {
+        return connector.connect(device);
+    }
+
+    @Override
+    public void disconnect() {
+        connector.disconnect();
+    }
+
+    @Nullable
+    @Override
+    public ResponsePacket write(@NotNull final ESP3Packet packet) {
+        return connector.write(packet);
+    }
+
+    @Nullable
+    @Override
+    public ESP3Packet read(final long timeout, @NotNull final TimeUnit unit) throws ReaderShutdownException {
+        final ESP3Packet packet = connector.read(timeout, unit);
+        if (packet instanceof RadioPacket) {
+            node.broadcastRadio(packet.generateRaw());
+        }
+        return packet;
+    }
+
+    @Override
+    public long getLastReadNanos() {
+        return connector instanceof TimestampedESP3Connector
+                ? ((TimestampedESP3Connector) connector).getLastReadNanos()
+                : System.nanoTime();
+    }
+}
@@ -0,0 +1,133 @@
+package la.jarve.automata.cluster;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.BaseEncoding;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import eu.aleon.aleoncean.device.DeviceParameter;
+import eu.aleon.aleoncean.packet.ESP3Packet;
+
+/**
+ * Stand-in for another node on the same machine, to try out a node alone or to check the
+ * protocol: a ClusterNode on the loopback address with a single peer, which keeps the packets
+ * and parameters the peer sends it.
+ *
+ * Run it with: LoopbackPeer secret nodeId port peerId peerPort, and configure the node under
+ * test with the stand-in as its peer on the loopback address. It logs what the node sends.
+ */
+public class LoopbackPeer implements ClusterNode.Listener, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoopbackPeer.class);
+
+    @NotNull
+    private final ClusterNode node;
+    @NotNull
+    private final String peerId;
+    private final BlockingQueue<byte[]> writes = new LinkedBlockingQueue<>();
+    private final BlockingQueue<String> parameters = new LinkedBlockingQueue<>();
+
+    /**
+     * @param port     port to accept the peer on, the peer dials it too
+     * @param peerPort port the peer accepts nodes on
+     */
+    public LoopbackPeer(@NotNull final String nodeId, @NotNull final byte[] secret, final int port,
+                        @NotNull final String peerId, final int peerPort) {
+        final InetAddress loopback = InetAddress.getLoopbackAddress();
+        this.node = new ClusterNode(nodeId, secret, new InetSocketAddress(loopback, port),
+                ImmutableMap.of(peerId, InetSocketAddress.createUnresolved(loopback.getHostAddress(), peerPort)));
+        this.peerId = peerId;
+        node.setListener(this);
+    }
+
+    @NotNull
+    public ClusterNode getNode() {
+        return node;
+    }
+
+    public void start() throws IOException {
+        node.start();
+    }
+
+    public boolean isConnected() {
+        return node.getConnectedPeers() > 0;
+    }
+
+    /**
+     * Next radio packet the peer received, or null if none arrives within the timeout.
+     */
+    @Nullable
+    public ESP3Packet pollRadio(final long timeout, @NotNull final TimeUnit unit) {
+        return node.connectorFor(peerId).read(timeout, unit);
+    }
+
+    /**
+     * Next raw packet the peer asked this node to transmit, or null if none arrives within the timeout.
+     */
+    @Nullable
+    public byte[] pollWrite(final long timeout, @NotNull final TimeUnit unit) throws InterruptedException {
+        return writes.poll(timeout, unit);
+    }
+
+    /**
+     * Next parameter change the peer sent, as "device PARAMETER=value", or null if none arrives
+     * within the timeout.
+     */
+    @Nullable
+    public String pollParameter(final long timeout, @NotNull final TimeUnit unit) throws InterruptedException {
+        return parameters.poll(timeout, unit);
+    }
+
+    @Override
+    public void onWrite(@NotNull final String nodeId, @NotNull final byte[] packet) {
+        writes.add(packet);
+    }
+
+    @Override
+    public void onParameter(@NotNull final String nodeId, final int device, @NotNull final DeviceParameter parameter,
+                            @NotNull final Object value) {
+        parameters.add(String.format("%08X %s=%s", device, parameter, value));
+    }
+
+    @Override
+    public void close() throws IOException {
+        node.close();
+    }
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        if (args.length != 5) {
+            System.err.println("Usage: LoopbackPeer secret nodeId port peerId peerPort");
+            System.exit(2);
+        }
+        try (LoopbackPeer peer = new LoopbackPeer(args[1], args[0].getBytes(StandardCharsets.UTF_8),
+                Integer.parseInt(args[2]), args[3], Integer.parseInt(args[4]))) {
+            peer.start();
+            while (true) {
+                final ESP3Packet packet = peer.pollRadio(100, TimeUnit.MILLISECONDS);
+                if (packet != null) {
+                    LOGGER.info("Radio {}", BaseEncoding.base16().encode(packet.generateRaw()));
+                }
+                byte[] write;
+                while ((write = peer.pollWrite(0, TimeUnit.MILLISECONDS)) != null) {
+                    LOGGER.info("Write {}", BaseEncoding.base16().encode(write));
+                }
+                String parameter;
+                while ((parameter = peer.pollParameter(0, TimeUnit.MILLISECONDS)) != null) {
+                    LOGGER.info("Parameter {}", parameter);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package la.jarve.automata.cluster;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.aleon.aleoncean.packet.ESP3Packet;
+import eu.aleon.aleoncean.packet.ESP3PacketFactory;
+import eu.aleon.aleoncean.packet.ResponsePacket;
+import la.jarve.enocean.rxtx.TimestampedESP3Connector;
+
+/**
+ * A peer node as a gateway: reads the radio packets the peer received and has the peer
+ * transmit the packets written to it. Meant to be merged with the local gateways by a
+ * MultiGatewayConnector, which then sends to a device through the node hearing it best.
+ *
+ * Connecting does nothing, the connection is kept up by the ClusterNode. Writes are not
+ * acknowledged, so they always return a null response.
+ */
+public class PeerConnector implements TimestampedESP3Connector {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PeerConnector.class);
+    private static final int QUEUE_CAPACITY = 256;
+
+    @NotNull
+    private final ClusterNode node;
+    @NotNull
+    private final String peerId;
+    private final BlockingQueue<ReceivedFrame> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private volatile long lastReadNanos;
+
+    PeerConnector(@NotNull final ClusterNode node, @NotNull final String peerId) {
+        this.node = node;
+        this.peerId = peerId;
+    }
+
+    @NotNull
+    public String getPeerId() {
+        return peerId;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    @Override
+    public boolean connect(@Nullable final String device) {
+        return true;
+    }
+
+    @Override
+    public void disconnect() {
+        queue.clear();
+    }
+
+    @Nullable
+    @Override
+    public ResponsePacket write(@NotNull final ESP3Packet packet) {
+        node.sendWrite(peerId, packet.generateRaw());
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public ESP3Packet read(final long timeout, @NotNull final TimeUnit unit) {
+        try {
+            final ReceivedFrame frame = queue.poll(timeout, unit);
+            if (frame == null) {
+                return null;
+            }
+            lastReadNanos = frame.receivedNanos;
+            return ESP3PacketFactory.fromRaw(frame.raw);
+        } catch (InterruptedException ignored) {
+            LOGGER.debug("Read poll interrupted");
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    public long getLastReadNanos() {
+        return lastReadNanos;
+    }
+
+    void offer(@NotNull final byte[] raw) {
+        if (!queue.offer(new ReceivedFrame(raw, System.nanoTime()))) {
+            droppedFrames.incrementAndGet();
+            LOGGER.warn("Queue of peer {} full, dropping packet", peerId);
+        }
+    }
+
+    private static final class ReceivedFrame {
+        private final byte[] raw;
+        private final long receivedNanos;
+
+        private ReceivedFrame(final byte[] raw, final long receivedNanos) {
+            this.raw = raw;
+            this.receivedNanos = receivedNanos;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package la.jarve.automata.cluster;
+
+import org.jetbrains.annotations.NotNull;
+
+import eu.aleon.aleoncean.packet.EnOceanId;
+
+/**
+ * Source of the parameter events of a device configured on a peer node only.
+ */
+public class RemoteDeviceSource {
+
+    @NotNull
+    private final String nodeId;
+    @NotNull
+    private final EnOceanId addressRemote;
+
+    public RemoteDeviceSource(@NotNull final String nodeId, @NotNull final EnOceanId addressRemote) {
+        this.nodeId = nodeId;
+        this.addressRemote = addressRemote;
+    }
+
+    @NotNull
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @NotNull
+    public EnOceanId getAddressRemote() {
+        return addressRemote;
+    }
+
+    @Override
+    public String toString() {
+        return "RemoteDeviceSource{nodeId=" + nodeId + ", addressRemote=" + addressRemote + "}";
+    }
+}
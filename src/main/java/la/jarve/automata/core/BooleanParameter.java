@@ -0,0 +1,35 @@
+package la.jarve.automata.core;
+
+import org.kie.api.definition.type.Role;
+import org.kie.api.definition.type.Timestamp;
+
+import eu.aleon.aleoncean.device.DeviceParameterUpdatedEvent;
+
+/**
+ * Parameter of a boolean value, such as the state of a switch.
+ */
+@Role(Role.Type.EVENT)
+@Timestamp("timestamp")
+public class BooleanParameter extends Parameter {
+
+    private final boolean value;
+    private final boolean previousValue;
+
+    public BooleanParameter(final DeviceParameterUpdatedEvent parameterUpdatedEvent, final String name) {
+        super(parameterUpdatedEvent, name);
+        this.value = (Boolean) parameterUpdatedEvent.getNewValue();
+        final Object oldValue = parameterUpdatedEvent.getOldValue();
+        this.previousValue = oldValue instanceof Boolean && (Boolean) oldValue;
+    }
+
+    public boolean isValue() {
+        return value;
+    }
+
+    /**
+     * The old value, or false if there was none, which oldValue tells apart.
+     */
+    public boolean isPreviousValue() {
+        return previousValue;
+    }
+}
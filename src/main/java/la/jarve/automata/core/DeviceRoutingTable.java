@@ -0,0 +1,81 @@
+package la.jarve.automata.core;
+
+import com.google.common.collect.Multimap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.Map;
+
+import eu.aleon.aleoncean.device.Device;
+import eu.aleon.aleoncean.packet.EnOceanId;
+
+/**
+ * Immutable open-addressing table from 32-bit EnOcean ids to their devices, used for routing
+ * radio packets without boxing or iterator allocation.
+ */
+public final class DeviceRoutingTable {
+
+    private final int[] keys;
+    private final Device[][] values;
+    private final int mask;
+    private final int size;
+
+    public DeviceRoutingTable(@NotNull final Multimap<EnOceanId, Device> deviceMap) {
+        final Map<EnOceanId, Collection<Device>> devicesById = deviceMap.asMap();
+        int capacity = 8;
+        while (capacity < devicesById.size() * 2) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        values = new Device[capacity][];
+        mask = capacity - 1;
+        size = devicesById.size();
+
+        for (Map.Entry<EnOceanId, Collection<Device>> entry : devicesById.entrySet()) {
+            final int key = toInt(entry.getKey());
+            int index = indexOf(key);
+            while (values[index] != null) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = key;
+            values[index] = entry.getValue().toArray(new Device[entry.getValue().size()]);
+        }
+    }
+
+    /**
+     * @return devices of the id, or null for an unknown id
+     */
+    @Nullable
+    public Device[] get(final int enOceanId) {
+        int index = indexOf(enOceanId);
+        Device[] devices;
+        while ((devices = values[index]) != null) {
+            if (keys[index] == enOceanId) {
+                return devices;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public static int toInt(@NotNull final EnOceanId enOceanId) {
+        final byte[] data = enOceanId.getData();
+        return ((data[0] & 0xFF) << 24) | ((data[1] & 0xFF) << 16) | ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+    }
+
+    @NotNull
+    public static EnOceanId fromInt(final int enOceanId) {
+        return new EnOceanId(new byte[]{
+                (byte) (enOceanId >>> 24), (byte) (enOceanId >>> 16), (byte) (enOceanId >>> 8), (byte) enOceanId});
+    }
+
+    private int indexOf(final int key) {
+        return (key * 0x9E3779B9 >>> 16) & mask;
+    }
+}
@@ -0,0 +1,39 @@
+package la.jarve.automata.core;
+
+import org.kie.api.definition.type.Role;
+import org.kie.api.definition.type.Timestamp;
+
+import eu.aleon.aleoncean.device.DeviceParameterUpdatedEvent;
+
+/**
+ * Parameter of a floating point value, whose constraints in the rules compare primitive doubles.
+ */
+@Role(Role.Type.EVENT)
+@Timestamp("timestamp")
+public class DoubleParameter extends Parameter {
+
+    private final double value;
+    private final double previousValue;
+
+    public DoubleParameter(final DeviceParameterUpdatedEvent parameterUpdatedEvent, final String name) {
+        super(parameterUpdatedEvent, name);
+        this.value = ((Number) parameterUpdatedEvent.getNewValue()).doubleValue();
+        final Object oldValue = parameterUpdatedEvent.getOldValue();
+        this.previousValue = oldValue instanceof Number ? ((Number) oldValue).doubleValue() : Double.NaN;
+    }
+
+    static boolean isFloatingPoint(final Object value) {
+        return value instanceof Double || value instanceof Float;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * The old value, or NaN if there was none.
+     */
+    public double getPreviousValue() {
+        return previousValue;
+    }
+}
@@ -0,0 +1,35 @@
+package la.jarve.automata.core;
+
+import org.kie.api.definition.type.Role;
+import org.kie.api.definition.type.Timestamp;
+
+import eu.aleon.aleoncean.device.DeviceParameterUpdatedEvent;
+
+/**
+ * Parameter of an enum value, such as a RockerSwitchAction, compared by identity in the rules.
+ */
+@Role(Role.Type.EVENT)
+@Timestamp("timestamp")
+public class EnumParameter extends Parameter {
+
+    private final Enum<?> value;
+    private final Enum<?> previousValue;
+
+    public EnumParameter(final DeviceParameterUpdatedEvent parameterUpdatedEvent, final String name) {
+        super(parameterUpdatedEvent, name);
+        this.value = (Enum<?>) parameterUpdatedEvent.getNewValue();
+        final Object oldValue = parameterUpdatedEvent.getOldValue();
+        this.previousValue = oldValue instanceof Enum ? (Enum<?>) oldValue : null;
+    }
+
+    public Enum<?> getValue() {
+        return value;
+    }
+
+    /**
+     * The old value, or null if there was none.
+     */
+    public Enum<?> getPreviousValue() {
+        return previousValue;
+    }
+}
@@ -0,0 +1,12 @@
+package la.jarve.automata.core;
+
+public enum FilterMode {
+    /** Suppress events whose value equals the last published value. */
+    UNCHANGED,
+    /** Suppress numeric changes smaller than an absolute threshold. */
+    DEADBAND_ABSOLUTE,
+    /** Suppress numeric changes smaller than a percentage of the last published value. */
+    DEADBAND_PERCENT,
+    /** Suppress events arriving sooner than an interval after the last published one. */
+    MIN_INTERVAL
+}
@@ -0,0 +1,39 @@
+package la.jarve.automata.core;
+
+import org.kie.api.definition.type.Role;
+import org.kie.api.definition.type.Timestamp;
+
+import eu.aleon.aleoncean.device.DeviceParameterUpdatedEvent;
+
+/**
+ * Parameter of an integral value, whose constraints in the rules compare primitive longs.
+ */
+@Role(Role.Type.EVENT)
+@Timestamp("timestamp")
+public class LongParameter extends Parameter {
+
+    private final long value;
+    private final long previousValue;
+
+    public LongParameter(final DeviceParameterUpdatedEvent parameterUpdatedEvent, final String name) {
+        super(parameterUpdatedEvent, name);
+        this.value = ((Number) parameterUpdatedEvent.getNewValue()).longValue();
+        final Object oldValue = parameterUpdatedEvent.getOldValue();
+        this.previousValue = isIntegral(oldValue) ? ((Number) oldValue).longValue() : 0;
+    }
+
+    static boolean isIntegral(final Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * The old value, or 0 if there was none, which oldValue tells apart.
+     */
+    public long getPreviousValue() {
+        return previousValue;
+    }
+}
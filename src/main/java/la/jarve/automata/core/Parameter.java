@@ -1,19 +1,65 @@
 package la.jarve.automata.core;
 
+import org.kie.api.definition.type.Role;
+import org.kie.api.definition.type.Timestamp;
+
 import eu.aleon.aleoncean.device.Device;
 import eu.aleon.aleoncean.device.DeviceParameter;
 import eu.aleon.aleoncean.device.DeviceParameterUpdatedEvent;
 import eu.aleon.aleoncean.device.DeviceParameterUpdatedInitiation;
 import eu.aleon.aleoncean.packet.EnOceanId;
+import la.jarve.automata.cluster.RemoteDeviceSource;
 
+/**
+ * A parameter update as a fact of the rules. Use of() to get the LongParameter,
+ * DoubleParameter, BooleanParameter or EnumParameter matching the value, whose constraints
+ * do without boxing and coercion. Events keep the time of the update as their timestamp, also
+ * when carried over to reloaded rules.
+ */
+@Role(Role.Type.EVENT)
+@Timestamp("timestamp")
 public class Parameter {
 
     private final DeviceParameterUpdatedEvent parameterUpdatedEvent;
     private final String name;
+    private final int deviceId;
+    private final long timestamp;
+    private final long originNanos;
+    private final long publishedNanos;
 
     public Parameter(final DeviceParameterUpdatedEvent parameterUpdatedEvent, final String name) {
         this.parameterUpdatedEvent = parameterUpdatedEvent;
         this.name = name;
+        final EnOceanId addressRemote = getAddressRemote();
+        this.deviceId = addressRemote != null ? DeviceRoutingTable.toInt(addressRemote) : 0;
+        this.timestamp = System.currentTimeMillis();
+        if (parameterUpdatedEvent instanceof TimedParameterUpdatedEvent) {
+            final TimedParameterUpdatedEvent timedEvent = (TimedParameterUpdatedEvent) parameterUpdatedEvent;
+            this.originNanos = timedEvent.getOriginNanos();
+            this.publishedNanos = timedEvent.getPublishedNanos();
+        } else {
+            this.originNanos = System.nanoTime();
+            this.publishedNanos = originNanos;
+        }
+    }
+
+    /**
+     * Typed fact of the update, or a plain Parameter when the value has no typed fact.
+     *
+     * @param name name of the device, which DeviceService keeps interned
+     */
+    public static Parameter of(final DeviceParameterUpdatedEvent parameterUpdatedEvent, final String name) {
+        final Object value = parameterUpdatedEvent.getNewValue();
+        if (LongParameter.isIntegral(value)) {
+            return new LongParameter(parameterUpdatedEvent, name);
+        } else if (DoubleParameter.isFloatingPoint(value)) {
+            return new DoubleParameter(parameterUpdatedEvent, name);
+        } else if (value instanceof Boolean) {
+            return new BooleanParameter(parameterUpdatedEvent, name);
+        } else if (value instanceof Enum) {
+            return new EnumParameter(parameterUpdatedEvent, name);
+        }
+        return new Parameter(parameterUpdatedEvent, name);
     }
 
     public EnOceanId getAddressRemote() {
@@ -21,6 +67,8 @@ public class Parameter {
         if (source instanceof Device) {
             Device device = (Device) source;
             return device.getAddressRemote();
+        } else if (source instanceof RemoteDeviceSource) {
+            return ((RemoteDeviceSource) source).getAddressRemote();
         } else {
             return null;
         }
@@ -30,6 +78,13 @@ public class Parameter {
         return name;
     }
 
+    /**
+     * Device id as in DeviceRoutingTable, or 0 if the source is not a device.
+     */
+    public int getDeviceId() {
+        return deviceId;
+    }
+
     public Object getSource() {
         return parameterUpdatedEvent.getSource();
     }
@@ -49,4 +104,22 @@ public class Parameter {
     public Object getNewValue() {
         return parameterUpdatedEvent.getNewValue();
     }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * System.nanoTime() of the radio frame which caused this update.
+     */
+    public long getOriginNanos() {
+        return originNanos;
+    }
+
+    /**
+     * System.nanoTime() at which DeviceService published this update.
+     */
+    public long getPublishedNanos() {
+        return publishedNanos;
+    }
 }
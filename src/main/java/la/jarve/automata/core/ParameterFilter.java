@@ -0,0 +1,177 @@
+package la.jarve.automata.core;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.aleon.aleoncean.device.Device;
+import eu.aleon.aleoncean.device.DeviceParameter;
+import eu.aleon.aleoncean.device.DeviceParameterUpdatedEvent;
+import eu.aleon.aleoncean.packet.EnOceanId;
+
+/**
+ * Suppresses redundant parameter updates per device and parameter before they are
+ * published. Rules bound to a device take precedence over rules for all devices.
+ */
+public class ParameterFilter {
+
+    private final Map<RuleKey, Rule> rules = new HashMap<>();
+    private final Map<StateKey, State> states = new HashMap<>();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    /**
+     * @param device remote id the rule applies to, or null for every device
+     */
+    public void addRule(@Nullable final EnOceanId device, @NotNull final DeviceParameter parameter,
+                        @NotNull final FilterMode mode, final double threshold, final long intervalMillis) {
+        rules.put(new RuleKey(device, parameter), new Rule(mode, threshold, intervalMillis));
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    public long getSuppressed() {
+        return suppressed.get();
+    }
+
+    /**
+     * Drops the last published values of devices which are gone.
+     */
+    public void removeDevices(@NotNull final Collection<Device> devices) {
+        if (devices.isEmpty()) {
+            return;
+        }
+        final Set<Device> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        removed.addAll(devices);
+        synchronized (states) {
+            states.keySet().removeIf(key -> removed.contains(key.device));
+        }
+    }
+
+    public boolean accept(@NotNull final DeviceParameterUpdatedEvent event) {
+        if (rules.isEmpty() || !(event.getSource() instanceof Device)) {
+            return true;
+        }
+        final Device device = (Device) event.getSource();
+        Rule rule = rules.get(new RuleKey(device.getAddressRemote(), event.getParameter()));
+        if (rule == null) {
+            rule = rules.get(new RuleKey(null, event.getParameter()));
+        }
+        if (rule == null) {
+            return true;
+        }
+
+        final long now = System.currentTimeMillis();
+        final Object value = event.getNewValue();
+        synchronized (states) {
+            final StateKey stateKey = new StateKey(device, event.getParameter());
+            final State state = states.get(stateKey);
+            if (state != null && rule.suppresses(state, value, now)) {
+                suppressed.incrementAndGet();
+                return false;
+            }
+            states.put(stateKey, new State(value, now));
+        }
+        return true;
+    }
+
+    private static final class Rule {
+        private final FilterMode mode;
+        private final double threshold;
+        private final long intervalMillis;
+
+        private Rule(final FilterMode mode, final double threshold, final long intervalMillis) {
+            this.mode = mode;
+            this.threshold = threshold;
+            this.intervalMillis = intervalMillis;
+        }
+
+        private boolean suppresses(final State last, final Object value, final long now) {
+            final boolean numeric = last.value instanceof Number && value instanceof Number;
+            switch (mode) {
+                case UNCHANGED:
+                    return Objects.equals(last.value, value);
+                case DEADBAND_ABSOLUTE:
+                    return numeric && Math.abs(delta(last.value, value)) < threshold;
+                case DEADBAND_PERCENT:
+                    return numeric && Math.abs(delta(last.value, value))
+                            < Math.abs(((Number) last.value).doubleValue()) * threshold / 100.0;
+                case MIN_INTERVAL:
+                    return now - last.timestamp < intervalMillis;
+                default:
+                    return false;
+            }
+        }
+
+        private static double delta(final Object from, final Object to) {
+            return ((Number) to).doubleValue() - ((Number) from).doubleValue();
+        }
+    }
+
+    private static final class State {
+        private final Object value;
+        private final long timestamp;
+
+        private State(final Object value, final long timestamp) {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private static final class RuleKey {
+        private final EnOceanId device;
+        private final DeviceParameter parameter;
+
+        private RuleKey(final EnOceanId device, final DeviceParameter parameter) {
+            this.device = device;
+            this.parameter = parameter;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof RuleKey)) {
+                return false;
+            }
+            final RuleKey other = (RuleKey) o;
+            return Objects.equals(device, other.device) && parameter == other.parameter;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(device) + Objects.hashCode(parameter);
+        }
+    }
+
+    private static final class StateKey {
+        private final Device device;
+        private final DeviceParameter parameter;
+
+        private StateKey(final Device device, final DeviceParameter parameter) {
+            this.device = device;
+            this.parameter = parameter;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof StateKey)) {
+                return false;
+            }
+            final StateKey other = (StateKey) o;
+            return device == other.device && parameter == other.parameter;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(device) + Objects.hashCode(parameter);
+        }
+    }
+}
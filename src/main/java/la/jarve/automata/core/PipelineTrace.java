@@ -0,0 +1,29 @@
+package la.jarve.automata.core;
+
+/**
+ * Carries the System.nanoTime() of the radio frame being processed on the current thread,
+ * so work it triggers synchronously, such as device parameter updates while parsing a packet
+ * or commands from rule consequences, can be attributed to it.
+ */
+public final class PipelineTrace {
+
+    private static final ThreadLocal<long[]> ORIGIN = ThreadLocal.withInitial(() -> new long[1]);
+
+    private PipelineTrace() {
+    }
+
+    public static void setOrigin(final long originNanos) {
+        ORIGIN.get()[0] = originNanos;
+    }
+
+    public static void clearOrigin() {
+        ORIGIN.get()[0] = 0;
+    }
+
+    /**
+     * @return origin of the current work, or 0 if it was not caused by a radio frame
+     */
+    public static long getOrigin() {
+        return ORIGIN.get()[0];
+    }
+}
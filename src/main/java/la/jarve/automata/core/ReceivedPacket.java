@@ -0,0 +1,41 @@
+package la.jarve.automata.core;
+
+import org.jetbrains.annotations.NotNull;
+
+import eu.aleon.aleoncean.packet.RadioPacket;
+
+/**
+ * A radio packet with the System.nanoTime() its frame was received at and the time it was
+ * published by RadioService.
+ */
+public class ReceivedPacket {
+
+    @NotNull
+    private final RadioPacket packet;
+    private final long receivedNanos;
+    private final long publishedNanos;
+
+    public ReceivedPacket(@NotNull final RadioPacket packet, final long receivedNanos, final long publishedNanos) {
+        this.packet = packet;
+        this.receivedNanos = receivedNanos;
+        this.publishedNanos = publishedNanos;
+    }
+
+    @NotNull
+    public RadioPacket getPacket() {
+        return packet;
+    }
+
+    public long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    public long getPublishedNanos() {
+        return publishedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return packet.toString();
+    }
+}
@@ -0,0 +1,31 @@
+package la.jarve.automata.core;
+
+import org.jetbrains.annotations.NotNull;
+
+import eu.aleon.aleoncean.device.DeviceParameterUpdatedEvent;
+
+/**
+ * A DeviceParameterUpdatedEvent with the System.nanoTime() of the radio frame which caused
+ * it, or of its creation when no frame did, and the time it was published by DeviceService.
+ */
+public class TimedParameterUpdatedEvent extends DeviceParameterUpdatedEvent {
+
+    private final long originNanos;
+    private final long publishedNanos;
+
+    public TimedParameterUpdatedEvent(@NotNull final DeviceParameterUpdatedEvent event,
+                                      final long originNanos, final long publishedNanos) {
+        super(event.getSource(), event.getParameter(), event.getInitiation(), event.getOldValue(),
+                event.getNewValue());
+        this.originNanos = originNanos;
+        this.publishedNanos = publishedNanos;
+    }
+
+    public long getOriginNanos() {
+        return originNanos;
+    }
+
+    public long getPublishedNanos() {
+        return publishedNanos;
+    }
+}
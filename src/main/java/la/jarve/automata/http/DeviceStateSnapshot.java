@@ -0,0 +1,101 @@
+package la.jarve.automata.http;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable view of the current parameter values of every device. A new snapshot is made
+ * for each change, sharing the state of the unchanged devices with the previous one. The
+ * JSON form is rendered once per snapshot and the same bytes are served to every reader.
+ */
+public class DeviceStateSnapshot {
+
+    private final long version;
+    @NotNull
+    private final ImmutableMap<String, DeviceState> devices;
+    private volatile byte[] json;
+
+    public DeviceStateSnapshot(final long version, @NotNull final ImmutableMap<String, DeviceState> devices) {
+        this.version = version;
+        this.devices = devices;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @NotNull
+    public ImmutableMap<String, DeviceState> getDevices() {
+        return devices;
+    }
+
+    /**
+     * Copy of the snapshot with one parameter value changed.
+     */
+    @NotNull
+    public DeviceStateSnapshot with(@NotNull final String id, @Nullable final String name,
+                                    @NotNull final String parameter, @Nullable final Object value) {
+        final DeviceState previous = devices.get(id);
+        final Map<String, Object> parameters = new LinkedHashMap<>();
+        if (previous != null) {
+            parameters.putAll(previous.getParameters());
+        }
+        parameters.put(parameter, value);
+        final Map<String, DeviceState> copy = new LinkedHashMap<>(devices);
+        copy.put(id, new DeviceState(name, parameters));
+        return new DeviceStateSnapshot(version + 1, ImmutableMap.copyOf(copy));
+    }
+
+    /**
+     * The snapshot as JSON. The returned array is shared and must not be modified.
+     */
+    @NotNull
+    public byte[] toJson(@NotNull final ObjectMapper objectMapper) {
+        byte[] bytes = json;
+        if (bytes == null) {
+            final Map<String, Object> document = new LinkedHashMap<>();
+            document.put("version", version);
+            document.put("devices", devices);
+            try {
+                bytes = objectMapper.writeValueAsBytes(document);
+            } catch (JsonProcessingException e) {
+                throw new RuntimeException("Cannot render device state", e);
+            }
+            json = bytes;
+        }
+        return bytes;
+    }
+
+    public static final class DeviceState {
+        @Nullable
+        private final String name;
+        @NotNull
+        private final Map<String, Object> parameters;
+
+        /**
+         * Takes ownership of the parameters map, which may hold nulls for the values not received yet.
+         */
+        DeviceState(@Nullable final String name, @NotNull final Map<String, Object> parameters) {
+            this.name = name;
+            this.parameters = Collections.unmodifiableMap(parameters);
+        }
+
+        @Nullable
+        public String getName() {
+            return name;
+        }
+
+        @NotNull
+        public Map<String, Object> getParameters() {
+            return parameters;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package la.jarve.automata.http;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multimap;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import eu.aleon.aleoncean.device.Device;
+import eu.aleon.aleoncean.device.DeviceParameter;
+import eu.aleon.aleoncean.device.DeviceParameterUpdatedEvent;
+import eu.aleon.aleoncean.packet.EnOceanId;
+
+/**
+ * Keeps a copy-on-write DeviceStateSnapshot up to date from parameter updates. Readers get
+ * the current snapshot without locking, and can wait for the next one.
+ */
+public class DeviceStateTracker {
+
+    @NotNull
+    private final Function<EnOceanId, String> names;
+    private final Object changed = new Object();
+    private volatile DeviceStateSnapshot snapshot;
+
+    /**
+     * @param values initial value of a parameter of a device, or null if it is not known
+     */
+    public DeviceStateTracker(@NotNull final Multimap<EnOceanId, Device> devices,
+                              @NotNull final Function<EnOceanId, String> names,
+                              @NotNull final BiFunction<Device, DeviceParameter, Object> values) {
+        this.names = names;
+        final Map<String, DeviceStateSnapshot.DeviceState> states = new LinkedHashMap<>();
+        for (Map.Entry<EnOceanId, Collection<Device>> entry : devices.asMap().entrySet()) {
+            final Map<String, Object> parameters = new LinkedHashMap<>();
+            for (Device device : entry.getValue()) {
+                for (DeviceParameter parameter : device.getParameters()) {
+                    parameters.put(parameter.name(), values.apply(device, parameter));
+                }
+            }
+            states.put(entry.getKey().toString(),
+                    new DeviceStateSnapshot.DeviceState(names.apply(entry.getKey()), parameters));
+        }
+        this.snapshot = new DeviceStateSnapshot(0, ImmutableMap.copyOf(states));
+    }
+
+    @NotNull
+    public DeviceStateSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Waits until there is a snapshot newer than the given version.
+     *
+     * @return the newer snapshot, or the current one if the wait timed out
+     */
+    @NotNull
+    public DeviceStateSnapshot awaitChange(final long version, final long timeout, @NotNull final TimeUnit unit)
+            throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (changed) {
+            long remaining;
+            while (snapshot.getVersion() <= version && (remaining = deadline - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(changed, remaining);
+            }
+            return snapshot;
+        }
+    }
+
+    public void update(@NotNull final DeviceParameterUpdatedEvent event) {
+        if (!(event.getSource() instanceof Device) || event.getParameter() == null) {
+            return;
+        }
+        final EnOceanId id = ((Device) event.getSource()).getAddressRemote();
+        synchronized (changed) {
+            snapshot = snapshot.with(id.toString(), names.apply(id), event.getParameter().name(),
+                    event.getNewValue());
+            changed.notifyAll();
+        }
+    }
+}
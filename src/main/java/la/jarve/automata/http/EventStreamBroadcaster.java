@@ -0,0 +1,182 @@
+package la.jarve.automata.http;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import com.sun.net.httpserver.HttpExchange;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import la.jarve.automata.util.Threads;
+
+/**
+ * Writes the snapshots of a DeviceStateTracker as server-sent events to every open event
+ * stream, from one thread. The HTTP threads only start a stream and return, so open streams
+ * take no thread of the request pool. A client which stops reading holds up the other
+ * streams once its socket buffer is full, until the write fails.
+ */
+public class EventStreamBroadcaster implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventStreamBroadcaster.class);
+    private static final byte[] KEEPALIVE = ": keepalive\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    @NotNull
+    private final DeviceStateTracker tracker;
+    @NotNull
+    private final ObjectMapper objectMapper;
+    @NotNull
+    private final String epoch;
+    private final long keepaliveMillis;
+    // Guarded by itself, also while writing to the streams
+    private final List<Stream> streams = new ArrayList<>();
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * @param epoch prefix of the event ids, as versions restart at zero with the tracker
+     */
+    public EventStreamBroadcaster(@NotNull final DeviceStateTracker tracker, @NotNull final ObjectMapper objectMapper,
+                                  @NotNull final String epoch, final long keepaliveMillis) {
+        Preconditions.checkArgument(keepaliveMillis > 0, "keepaliveMillis must be positive");
+        this.tracker = tracker;
+        this.objectMapper = objectMapper;
+        this.epoch = epoch;
+        this.keepaliveMillis = keepaliveMillis;
+    }
+
+    public void start() {
+        Preconditions.checkState(thread == null);
+        running = true;
+        thread = Threads.newThread("http-events", this::run);
+        thread.start();
+    }
+
+    /**
+     * Sends the response headers and the current state unless the client saw it already, and
+     * hands the stream over to the broadcasting thread, which closes the exchange.
+     *
+     * @param lastVersion version of the last event the client saw, or -1
+     */
+    public void add(@NotNull final HttpExchange exchange, final long lastVersion) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        final Stream stream = new Stream(exchange, lastVersion);
+        synchronized (streams) {
+            if (!running) {
+                exchange.close();
+                return;
+            }
+            if (send(stream, tracker.getSnapshot())) {
+                streams.add(stream);
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (streams) {
+            return streams.size();
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(keepaliveMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        synchronized (streams) {
+            streams.forEach(stream -> stream.exchange.close());
+            streams.clear();
+        }
+    }
+
+    private void run() {
+        long version = tracker.getSnapshot().getVersion();
+        try {
+            while (running) {
+                final DeviceStateSnapshot snapshot = tracker.awaitChange(version, keepaliveMillis,
+                        TimeUnit.MILLISECONDS);
+                final boolean changed = snapshot.getVersion() > version;
+                version = snapshot.getVersion();
+                synchronized (streams) {
+                    for (Iterator<Stream> iterator = streams.iterator(); iterator.hasNext(); ) {
+                        final Stream stream = iterator.next();
+                        if (!(changed ? send(stream, snapshot) : keepalive(stream))) {
+                            iterator.remove();
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the snapshot if it is newer than the last one the stream got.
+     *
+     * @return false if the stream has been closed
+     */
+    private boolean send(@NotNull final Stream stream, @NotNull final DeviceStateSnapshot snapshot) {
+        if (snapshot.getVersion() <= stream.version) {
+            return true;
+        }
+        try {
+            final OutputStream body = stream.exchange.getResponseBody();
+            body.write(("id: " + epoch + "-" + snapshot.getVersion() + "\nevent: state\ndata: ")
+                    .getBytes(StandardCharsets.US_ASCII));
+            body.write(snapshot.toJson(objectMapper));
+            body.write(new byte[]{'\n', '\n'});
+            body.flush();
+            stream.version = snapshot.getVersion();
+            return true;
+        } catch (IOException e) {
+            return closed(stream);
+        }
+    }
+
+    private boolean keepalive(@NotNull final Stream stream) {
+        try {
+            final OutputStream body = stream.exchange.getResponseBody();
+            body.write(KEEPALIVE);
+            body.flush();
+            return true;
+        } catch (IOException e) {
+            return closed(stream);
+        }
+    }
+
+    private static boolean closed(@NotNull final Stream stream) {
+        LOGGER.debug("Event stream closed by {}", stream.exchange.getRemoteAddress());
+        stream.exchange.close();
+        return false;
+    }
+
+    private static final class Stream {
+        @NotNull
+        private final HttpExchange exchange;
+        private long version;
+
+        private Stream(@NotNull final HttpExchange exchange, final long version) {
+            this.exchange = exchange;
+            this.version = version;
+        }
+    }
+}
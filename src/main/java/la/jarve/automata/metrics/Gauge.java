@@ -0,0 +1,23 @@
+package la.jarve.automata.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Exports a counter or a size owned by a service.
+ */
+public class Gauge implements GaugeMBean {
+
+    @NotNull
+    private final LongSupplier supplier;
+
+    public Gauge(@NotNull final LongSupplier supplier) {
+        this.supplier = supplier;
+    }
+
+    @Override
+    public long getValue() {
+        return supplier.getAsLong();
+    }
+}
@@ -0,0 +1,5 @@
+package la.jarve.automata.metrics;
+
+public interface GaugeMBean {
+    long getValue();
+}
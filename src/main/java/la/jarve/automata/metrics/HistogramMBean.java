@@ -0,0 +1,15 @@
+package la.jarve.automata.metrics;
+
+public interface HistogramMBean {
+    long getCount();
+
+    double getMean();
+
+    long getMax();
+
+    long getP50();
+
+    long getP90();
+
+    long getP99();
+}
@@ -0,0 +1,37 @@
+package la.jarve.automata.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts events and keeps an exponentially decaying events per second rate over roughly
+ * the last minute.
+ */
+public class Meter implements MeterMBean {
+
+    private static final double TAU_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private long count;
+    private double rate;
+    private long lastNanos = System.nanoTime();
+
+    public synchronized void mark() {
+        final long now = System.nanoTime();
+        rate = decayedRate(now) + TimeUnit.SECONDS.toNanos(1) / TAU_NANOS;
+        lastNanos = now;
+        count++;
+    }
+
+    @Override
+    public synchronized long getCount() {
+        return count;
+    }
+
+    @Override
+    public synchronized double getOneMinuteRate() {
+        return decayedRate(System.nanoTime());
+    }
+
+    private double decayedRate(final long now) {
+        return rate * Math.exp(-(now - lastNanos) / TAU_NANOS);
+    }
+}
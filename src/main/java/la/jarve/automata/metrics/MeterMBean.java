@@ -0,0 +1,7 @@
+package la.jarve.automata.metrics;
+
+public interface MeterMBean {
+    long getCount();
+
+    double getOneMinuteRate();
+}
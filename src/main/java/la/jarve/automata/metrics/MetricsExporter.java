@@ -0,0 +1,73 @@
+package la.jarve.automata.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registers metrics as JMX MBeans under the la.jarve.automata domain, named
+ * la.jarve.automata:type=&lt;type&gt;,name=&lt;name&gt;.
+ */
+public class MetricsExporter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricsExporter.class);
+    private static final String DOMAIN = "la.jarve.automata";
+
+    @NotNull
+    private final MBeanServer mBeanServer;
+
+    public MetricsExporter() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public MetricsExporter(@NotNull final MBeanServer mBeanServer) {
+        this.mBeanServer = mBeanServer;
+    }
+
+    public void histogram(@NotNull final String name, @NotNull final Histogram histogram) {
+        register("Histogram", name, histogram);
+    }
+
+    public void meter(@NotNull final String name, @NotNull final Meter meter) {
+        register("Meter", name, meter);
+    }
+
+    public void gauge(@NotNull final String name, @NotNull final LongSupplier supplier) {
+        register("Gauge", name, new Gauge(supplier));
+    }
+
+    public void unregister(@NotNull final String type, @NotNull final String name) {
+        try {
+            final ObjectName objectName = objectName(type, name);
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            LOGGER.warn("Cannot unregister metric " + name, e);
+        }
+    }
+
+    private void register(@NotNull final String type, @NotNull final String name, @NotNull final Object mBean) {
+        try {
+            final ObjectName objectName = objectName(type, name);
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(mBean, objectName);
+        } catch (JMException e) {
+            LOGGER.warn("Cannot register metric " + name, e);
+        }
+    }
+
+    private static ObjectName objectName(@NotNull final String type, @NotNull final String name)
+            throws JMException {
+        return new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+    }
+}
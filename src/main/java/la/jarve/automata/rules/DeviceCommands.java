@@ -0,0 +1,16 @@
+package la.jarve.automata.rules;
+
+import org.jetbrains.annotations.NotNull;
+
+import eu.aleon.aleoncean.device.DeviceParameter;
+import eu.aleon.aleoncean.device.IllegalDeviceParameterException;
+import eu.aleon.aleoncean.packet.EnOceanId;
+
+/**
+ * Where NativeRulesEngine sends the commands of its rules, DeviceService.setDeviceParameter
+ * when running.
+ */
+public interface DeviceCommands {
+    void setDeviceParameter(@NotNull EnOceanId enOceanId, @NotNull DeviceParameter parameter, @NotNull Object value)
+            throws IllegalDeviceParameterException;
+}
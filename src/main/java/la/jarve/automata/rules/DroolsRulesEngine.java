@@ -0,0 +1,169 @@
+package la.jarve.automata.rules;
+
+import org.jetbrains.annotations.NotNull;
+import org.kie.api.KieBase;
+import org.kie.api.definition.KiePackage;
+import org.kie.api.definition.rule.Global;
+import org.kie.api.runtime.ClassObjectFilter;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.rule.AgendaFilter;
+import org.kie.api.runtime.rule.FactHandle;
+import org.kie.api.runtime.rule.Match;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import la.jarve.automata.core.Parameter;
+
+/**
+ * Drools KieSession as a RulesEngine. Parameters are inserted as facts and stay in the
+ * session until they are retracted or Drools expires them. Timers are run by Drools.
+ *
+ * Parameters carried over from replaced rules are kept apart, and a match made up of nothing
+ * but them is cancelled instead of fired, so a reload does not repeat the commands of the
+ * replaced rules. Matches which also take a new parameter fire as usual.
+ */
+public class DroolsRulesEngine implements RulesEngine {
+
+    @NotNull
+    private final KieSession kSession;
+    // Parameter facts in insertion order, for enforcing the maximum fact age and count
+    private final Deque<InsertedFact> insertedFacts = new ArrayDeque<>();
+    private final Set<Object> carriedOver = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final AgendaFilter notCarriedOver = this::takesNewFact;
+
+    /**
+     * @throws RuntimeException if the rules declare a global which is not given, which would
+     *                          otherwise only fail once a rule using it fires
+     */
+    public DroolsRulesEngine(@NotNull final KieBase kieBase, @NotNull final Map<String, Object> globals) {
+        for (KiePackage kiePackage : kieBase.getKiePackages()) {
+            for (Global global : kiePackage.getGlobalVariables()) {
+                if (!globals.containsKey(global.getName())) {
+                    throw new RuntimeException(String.format("No value for global %s %s, known globals are %s",
+                            global.getType(), global.getName(), globals.keySet()));
+                }
+            }
+        }
+        this.kSession = kieBase.newKieSession();
+        for (Map.Entry<String, Object> global : globals.entrySet()) {
+            kSession.setGlobal(global.getKey(), global.getValue());
+        }
+    }
+
+    /**
+     * Factory compiling the rules file, or loading it from the KieBaseLoader cache.
+     */
+    @NotNull
+    public static RulesEngineFactory factory(@NotNull final Path rulesFile, @NotNull final Map<String, Object> globals) {
+        return factory(rulesFile, () -> globals);
+    }
+
+    /**
+     * Factory taking the globals from the supplier on every load, so that anything the globals
+     * resolve fails the load rather than the rules.
+     */
+    @NotNull
+    public static RulesEngineFactory factory(@NotNull final Path rulesFile,
+                                             @NotNull final Supplier<Map<String, Object>> globals) {
+        final KieBaseLoader kieBaseLoader = new KieBaseLoader(rulesFile);
+        return () -> {
+            final KieBase kieBase = kieBaseLoader.load();
+            return new DroolsRulesEngine(kieBase, globals.get());
+        };
+    }
+
+    @Override
+    public void insert(@NotNull final Parameter parameter) {
+        insertedFacts.addLast(new InsertedFact(kSession.insert(parameter), parameter));
+    }
+
+    @Override
+    public void carryOver(@NotNull final List<Parameter> parameters) {
+        for (Parameter parameter : parameters) {
+            carriedOver.add(parameter);
+            insert(parameter);
+        }
+    }
+
+    @Override
+    public int fire() {
+        return carriedOver.isEmpty() ? kSession.fireAllRules() : kSession.fireAllRules(notCarriedOver);
+    }
+
+    private boolean takesNewFact(@NotNull final Match match) {
+        final List<? extends Object> objects = match.getObjects();
+        for (Object object : objects) {
+            if (!carriedOver.contains(object)) {
+                return true;
+            }
+        }
+        return objects.isEmpty();
+    }
+
+    @Override
+    public long getNextTimerMillis() {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Facts Drools has already expired on its own are skipped.
+     */
+    @Override
+    public int retract(final long oldestMillis, final int maxCount) {
+        int retracted = 0;
+        InsertedFact fact;
+        while ((fact = insertedFacts.peekFirst()) != null
+                && (fact.timestamp < oldestMillis || insertedFacts.size() > maxCount)) {
+            insertedFacts.removeFirst();
+            carriedOver.remove(fact.parameter);
+            if (kSession.getObject(fact.handle) != null) {
+                kSession.delete(fact.handle);
+                retracted++;
+            }
+        }
+        return retracted;
+    }
+
+    @Override
+    public long getFactCount() {
+        return kSession.getFactCount();
+    }
+
+    @NotNull
+    @Override
+    public List<Parameter> getParameters() {
+        final List<Parameter> parameters = new ArrayList<>();
+        for (Object fact : kSession.getObjects(new ClassObjectFilter(Parameter.class))) {
+            parameters.add((Parameter) fact);
+        }
+        parameters.sort(Comparator.comparingLong(Parameter::getTimestamp));
+        return parameters;
+    }
+
+    @Override
+    public void close() {
+        kSession.destroy();
+    }
+
+    private static final class InsertedFact {
+        private final FactHandle handle;
+        private final Parameter parameter;
+        private final long timestamp;
+
+        private InsertedFact(final FactHandle handle, final Parameter parameter) {
+            this.handle = handle;
+            this.parameter = parameter;
+            this.timestamp = parameter.getTimestamp();
+        }
+    }
+}
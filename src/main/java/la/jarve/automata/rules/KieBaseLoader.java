@@ -0,0 +1,175 @@
+package la.jarve.automata.rules;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import org.drools.core.util.DroolsStreamUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.kie.api.KieBase;
+import org.kie.api.KieBaseConfiguration;
+import org.kie.api.KieServices;
+import org.kie.api.builder.KieBuilder;
+import org.kie.api.builder.KieFileSystem;
+import org.kie.api.builder.Message;
+import org.kie.api.conf.EventProcessingOption;
+import org.kie.api.runtime.KieContainer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import eu.aleon.aleoncean.device.DeviceParameter;
+import la.jarve.automata.core.BooleanParameter;
+import la.jarve.automata.core.DoubleParameter;
+import la.jarve.automata.core.EnumParameter;
+import la.jarve.automata.core.LongParameter;
+import la.jarve.automata.core.Parameter;
+
+/**
+ * Compiles a Drools rules file into a stream-mode KieBase.
+ *
+ * Compiled KieBases are serialized next to the rules file, keyed by a SHA-256 hash of the
+ * rules content, the Drools and Automata versions and the bytecode of the fact classes, so a
+ * restart with unchanged rules skips the compilation entirely while an upgrade recompiles.
+ */
+public class KieBaseLoader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KieBaseLoader.class);
+
+    private static final int CACHE_MAGIC = 0x4B424331; // "KBC1"
+    private static final String CACHE_SUFFIX = ".kbase";
+    // Classes the compiled rules are bound to besides the rules source
+    private static final List<Class<?>> FACT_CLASSES = ImmutableList.<Class<?>>of(Parameter.class,
+            LongParameter.class, DoubleParameter.class, BooleanParameter.class, EnumParameter.class,
+            DeviceParameter.class);
+
+    @NotNull
+    private final Path rulesFile;
+    @NotNull
+    private final Path cacheFile;
+    private volatile long lastLoadMillis = -1;
+    private volatile boolean lastLoadCached;
+
+    public KieBaseLoader(@NotNull final Path rulesFile) {
+        this(rulesFile, rulesFile.resolveSibling(rulesFile.getFileName() + CACHE_SUFFIX));
+    }
+
+    public KieBaseLoader(@NotNull final Path rulesFile, @NotNull final Path cacheFile) {
+        this.rulesFile = rulesFile;
+        this.cacheFile = cacheFile;
+    }
+
+    @NotNull
+    public KieBase load() throws IOException {
+        final Stopwatch stopwatch = Stopwatch.createStarted();
+        final byte[] rules = Files.readAllBytes(rulesFile);
+        final String hash = cacheKey(rules);
+
+        KieBase kieBase = readCache(hash);
+        lastLoadCached = kieBase != null;
+        if (kieBase == null) {
+            kieBase = compile(rules);
+            writeCache(hash, kieBase);
+        }
+
+        lastLoadMillis = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+        LOGGER.info("Rules {} {} in {} ms", rulesFile, lastLoadCached ? "loaded from cache" : "compiled",
+                lastLoadMillis);
+        return kieBase;
+    }
+
+    public long getLastLoadMillis() {
+        return lastLoadMillis;
+    }
+
+    public boolean isLastLoadCached() {
+        return lastLoadCached;
+    }
+
+    @NotNull
+    private static String cacheKey(@NotNull final byte[] rules) throws IOException {
+        final Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putInt(rules.length).putBytes(rules);
+        hasher.putString(String.valueOf(KieServices.class.getPackage().getImplementationVersion()),
+                StandardCharsets.UTF_8);
+        hasher.putString(String.valueOf(KieBaseLoader.class.getPackage().getImplementationVersion()),
+                StandardCharsets.UTF_8);
+        for (Class<?> factClass : FACT_CLASSES) {
+            final String name = factClass.getName();
+            try (InputStream classFile = factClass.getResourceAsStream(
+                    name.substring(name.lastIndexOf('.') + 1) + ".class")) {
+                if (classFile != null) {
+                    hasher.putBytes(ByteStreams.toByteArray(classFile));
+                }
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    @NotNull
+    private static KieBase compile(@NotNull final byte[] rules) {
+        KieServices ks = KieServices.Factory.get();
+        KieFileSystem kFileSystem = ks.newKieFileSystem();
+        kFileSystem.write("src/main/resources/automata.drl", rules);
+
+        KieBuilder kBuilder = ks.newKieBuilder(kFileSystem);
+        kBuilder.buildAll();
+        if (kBuilder.getResults().hasMessages(Message.Level.ERROR)) {
+            throw new RuntimeException("Build time Errors: " + kBuilder.getResults());
+        }
+        KieContainer kContainer = ks.newKieContainer(ks.getRepository().getDefaultReleaseId());
+
+        KieBaseConfiguration config = ks.newKieBaseConfiguration();
+        config.setOption(EventProcessingOption.STREAM);
+
+        return kContainer.newKieBase(config);
+    }
+
+    @Nullable
+    private KieBase readCache(@NotNull final String hash) {
+        if (!Files.isRegularFile(cacheFile)) {
+            return null;
+        }
+        try (InputStream inputStream = Files.newInputStream(cacheFile)) {
+            final DataInputStream dataInputStream = new DataInputStream(inputStream);
+            if (dataInputStream.readInt() != CACHE_MAGIC || !hash.equals(dataInputStream.readUTF())) {
+                LOGGER.info("Rules cache {} is stale", cacheFile);
+                return null;
+            }
+            return (KieBase) DroolsStreamUtils.streamIn(dataInputStream, getClass().getClassLoader());
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            LOGGER.warn("Cannot read rules cache " + cacheFile + ", recompiling", e);
+            return null;
+        }
+    }
+
+    private void writeCache(@NotNull final String hash, @NotNull final KieBase kieBase) {
+        final Path tempFile = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        try {
+            try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+                final DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+                dataOutputStream.writeInt(CACHE_MAGIC);
+                dataOutputStream.writeUTF(hash);
+                DroolsStreamUtils.streamOut(dataOutputStream, kieBase);
+                dataOutputStream.flush();
+            }
+            Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Cannot write rules cache " + cacheFile, e);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package la.jarve.automata.rules;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import eu.aleon.aleoncean.device.DeviceParameter;
+import eu.aleon.aleoncean.packet.EnOceanId;
+
+/**
+ * A NativeRuleDefinition with its devices resolved, and the timers it has pending.
+ */
+final class NativeRule {
+
+    final String name;
+    @Nullable
+    final EnOceanId device;
+    final DeviceParameter parameter;
+    @Nullable
+    private final Object equalTo;
+    @Nullable
+    private final Double above;
+    @Nullable
+    private final Double below;
+    final long delayMillis;
+    @Nullable
+    final EnOceanId target;
+    final DeviceParameter targetParameter;
+    final Object value;
+    // Pending and fired timers by the device which started them, a fired one is kept until an
+    // update which does not match, so the rule fires once per run of matching updates
+    final Map<EnOceanId, NativeRulesEngine.Timer> timers = new HashMap<>();
+
+    private NativeRule(@NotNull final NativeRuleDefinition definition, @NotNull final String name,
+                       @NotNull final Function<String, EnOceanId> resolver) {
+        final NativeRuleDefinition.Condition when = definition.when;
+        final NativeRuleDefinition.Action then = definition.then;
+        if (when == null || when.parameter == null || then == null || then.parameter == null || then.value == null) {
+            throw new RuntimeException(String.format(
+                    "Rule '%s' needs when.parameter, then.parameter and then.value", name));
+        }
+        if (definition.delayMillis < 0) {
+            throw new RuntimeException(String.format("Rule '%s' has a negative delay", name));
+        }
+        this.name = name;
+        this.device = when.device != null ? resolver.apply(when.device) : null;
+        this.parameter = when.parameter;
+        this.equalTo = when.equalTo;
+        this.above = when.above;
+        this.below = when.below;
+        this.delayMillis = definition.delayMillis;
+        this.target = then.device != null ? resolver.apply(then.device) : null;
+        this.targetParameter = then.parameter;
+        this.value = then.value;
+    }
+
+    /**
+     * @param resolver device id for a name or id in the rules file
+     */
+    @NotNull
+    static NativeRule compile(@NotNull final NativeRuleDefinition definition, final int index,
+                              @NotNull final Function<String, EnOceanId> resolver) {
+        final String name = definition.name != null ? definition.name : "#" + (index + 1);
+        try {
+            return new NativeRule(definition, name, resolver);
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException(String.format("Rule '%s' has an invalid device", name), e);
+        }
+    }
+
+    boolean matches(@Nullable final Object newValue) {
+        if (equalTo != null) {
+            final boolean equal = equalTo instanceof Number && newValue instanceof Number
+                    ? ((Number) equalTo).doubleValue() == ((Number) newValue).doubleValue()
+                    : equalTo.toString().equals(String.valueOf(newValue));
+            if (!equal) {
+                return false;
+            }
+        }
+        if (above != null || below != null) {
+            if (!(newValue instanceof Number)) {
+                return false;
+            }
+            final double number = ((Number) newValue).doubleValue();
+            return (above == null || number > above) && (below == null || number < below);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,90 @@
+package la.jarve.automata.rules;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import org.jetbrains.annotations.Nullable;
+
+import eu.aleon.aleoncean.device.DeviceParameter;
+
+/**
+ * A rule of a native rules file, as written in YAML.
+ */
+public class NativeRuleDefinition {
+
+    @Nullable
+    public final String name;
+
+    @Nullable
+    public final Condition when;
+
+    /**
+     * Time the condition has to hold before the rule fires.
+     */
+    public final long delayMillis;
+
+    @Nullable
+    public final Action then;
+
+    @JsonCreator
+    public NativeRuleDefinition(@JsonProperty("name") final String name,
+                                @JsonProperty("when") final Condition when,
+                                @JsonProperty("delayMillis") final Long delayMillis,
+                                @JsonProperty("then") final Action then) {
+        this.name = name;
+        this.when = when;
+        this.delayMillis = delayMillis != null ? delayMillis : 0;
+        this.then = then;
+    }
+
+    /**
+     * A parameter update of a device, or of any device when the device is left out, whose new
+     * value equals, is above and is below the given ones, whichever are given.
+     */
+    public static class Condition {
+        @Nullable
+        public final String device;
+        @Nullable
+        public final DeviceParameter parameter;
+        @Nullable
+        public final Object equalTo;
+        @Nullable
+        public final Double above;
+        @Nullable
+        public final Double below;
+
+        @JsonCreator
+        public Condition(@JsonProperty("device") final String device,
+                         @JsonProperty("parameter") final DeviceParameter parameter,
+                         @JsonProperty("equals") final Object equalTo,
+                         @JsonProperty("above") final Double above,
+                         @JsonProperty("below") final Double below) {
+            this.device = device;
+            this.parameter = parameter;
+            this.equalTo = equalTo;
+            this.above = above;
+            this.below = below;
+        }
+    }
+
+    /**
+     * Sets a parameter of a device, or of the device of the condition when left out.
+     */
+    public static class Action {
+        @Nullable
+        public final String device;
+        @Nullable
+        public final DeviceParameter parameter;
+        @Nullable
+        public final Object value;
+
+        @JsonCreator
+        public Action(@JsonProperty("device") final String device,
+                      @JsonProperty("parameter") final DeviceParameter parameter,
+                      @JsonProperty("value") final Object value) {
+            this.device = device;
+            this.parameter = parameter;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package la.jarve.automata.rules;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.google.common.collect.ImmutableList;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+
+import eu.aleon.aleoncean.device.DeviceParameter;
+import eu.aleon.aleoncean.device.IllegalDeviceParameterException;
+import eu.aleon.aleoncean.packet.EnOceanId;
+import la.jarve.automata.core.Parameter;
+
+/**
+ * Rules engine for simple reactions, "when parameter X of device Y is V, set Z", which does
+ * without Drools. The rules are indexed by device and parameter, so a parameter update is
+ * only matched against the rules of its own device parameter and of that parameter on any
+ * device.
+ *
+ * A rule with a delay fires once its condition has held for the delay; an update of the same
+ * device parameter which does not match the condition cancels it, or re-arms it if it fired.
+ * Further matching updates neither fire it again nor restart the delay. Parameters are not kept,
+ * so there is nothing to retract, and pending timers are dropped when the rules are reloaded.
+ */
+public class NativeRulesEngine implements RulesEngine {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NativeRulesEngine.class);
+
+    private final Map<EnOceanId, EnumMap<DeviceParameter, NativeRule[]>> rulesByDevice = new HashMap<>();
+    // Rules without a device, which match the parameter of every device
+    private final EnumMap<DeviceParameter, NativeRule[]> rulesByParameter = new EnumMap<>(DeviceParameter.class);
+    @NotNull
+    private final DeviceCommands commands;
+    private final List<Parameter> inserted = new ArrayList<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>(Comparator.comparingLong(timer -> timer.dueMillis));
+
+    NativeRulesEngine(@NotNull final List<NativeRule> rules, @NotNull final DeviceCommands commands) {
+        this.commands = commands;
+        for (NativeRule rule : rules) {
+            final EnumMap<DeviceParameter, NativeRule[]> index = rule.device != null
+                    ? rulesByDevice.computeIfAbsent(rule.device, device -> new EnumMap<>(DeviceParameter.class))
+                    : rulesByParameter;
+            final NativeRule[] previous = index.get(rule.parameter);
+            final NativeRule[] appended = previous != null
+                    ? Arrays.copyOf(previous, previous.length + 1)
+                    : new NativeRule[1];
+            appended[appended.length - 1] = rule;
+            index.put(rule.parameter, appended);
+        }
+    }
+
+    /**
+     * @param resolver device id for a name or id in the rules file
+     */
+    @NotNull
+    public static RulesEngineFactory factory(@NotNull final Path rulesFile,
+                                             @NotNull final Function<String, EnOceanId> resolver,
+                                             @NotNull final DeviceCommands commands) {
+        return () -> load(rulesFile, resolver, commands);
+    }
+
+    /**
+     * Reads a YAML list of NativeRuleDefinitions.
+     */
+    @NotNull
+    public static NativeRulesEngine load(@NotNull final Path rulesFile,
+                                         @NotNull final Function<String, EnOceanId> resolver,
+                                         @NotNull final DeviceCommands commands) throws IOException {
+        final List<NativeRuleDefinition> definitions;
+        try (InputStream inputStream = Files.newInputStream(rulesFile)) {
+            definitions = new ObjectMapper(new YAMLFactory()).readValue(inputStream,
+                    new TypeReference<List<NativeRuleDefinition>>() { });
+        }
+        final List<NativeRule> rules = new ArrayList<>();
+        if (definitions != null) {
+            for (int i = 0; i < definitions.size(); i++) {
+                rules.add(NativeRule.compile(definitions.get(i), i, resolver));
+            }
+        }
+        LOGGER.info("Loaded {} native rules from {}", rules.size(), rulesFile);
+        return new NativeRulesEngine(rules, commands);
+    }
+
+    @Override
+    public void insert(@NotNull final Parameter parameter) {
+        inserted.add(parameter);
+    }
+
+    /**
+     * Nothing to carry over, as this engine keeps no parameters.
+     */
+    @Override
+    public void carryOver(@NotNull final List<Parameter> parameters) {
+    }
+
+    @Override
+    public int fire() {
+        int fired = 0;
+        for (Parameter parameter : inserted) {
+            final DeviceParameter deviceParameter = parameter.getParameter();
+            final EnOceanId device = parameter.getAddressRemote();
+            if (deviceParameter == null || device == null) {
+                continue;
+            }
+            final EnumMap<DeviceParameter, NativeRule[]> deviceRules = rulesByDevice.get(device);
+            if (deviceRules != null) {
+                fired += evaluate(deviceRules.get(deviceParameter), device, parameter);
+            }
+            fired += evaluate(rulesByParameter.get(deviceParameter), device, parameter);
+        }
+        inserted.clear();
+
+        final long now = System.currentTimeMillis();
+        Timer timer;
+        while ((timer = timers.peek()) != null && timer.dueMillis <= now) {
+            timers.poll();
+            if (!timer.cancelled) {
+                // Stays in rule.timers as fired until a non-matching update removes it
+                execute(timer.rule, timer.device);
+                fired++;
+            }
+        }
+        return fired;
+    }
+
+    private int evaluate(@Nullable final NativeRule[] rules, @NotNull final EnOceanId device,
+                         @NotNull final Parameter parameter) {
+        if (rules == null) {
+            return 0;
+        }
+        int fired = 0;
+        for (NativeRule rule : rules) {
+            if (!rule.matches(parameter.getNewValue())) {
+                final Timer pending = rule.timers.remove(device);
+                if (pending != null) {
+                    pending.cancelled = true;
+                }
+            } else if (rule.delayMillis == 0) {
+                execute(rule, device);
+                fired++;
+            } else if (!rule.timers.containsKey(device)) {
+                final Timer timer = new Timer(rule, device, parameter.getTimestamp() + rule.delayMillis);
+                rule.timers.put(device, timer);
+                timers.add(timer);
+            }
+        }
+        return fired;
+    }
+
+    private void execute(@NotNull final NativeRule rule, @NotNull final EnOceanId device) {
+        final EnOceanId target = rule.target != null ? rule.target : device;
+        try {
+            commands.setDeviceParameter(target, rule.targetParameter, rule.value);
+        } catch (IllegalDeviceParameterException | RuntimeException e) {
+            LOGGER.error("Rule '" + rule.name + "' failed", e);
+        }
+    }
+
+    @Override
+    public long getNextTimerMillis() {
+        Timer timer;
+        while ((timer = timers.peek()) != null && timer.cancelled) {
+            timers.poll();
+        }
+        return timer != null ? timer.dueMillis : Long.MAX_VALUE;
+    }
+
+    @Override
+    public int retract(final long oldestMillis, final int maxCount) {
+        return 0;
+    }
+
+    @Override
+    public long getFactCount() {
+        return 0;
+    }
+
+    @NotNull
+    @Override
+    public List<Parameter> getParameters() {
+        return ImmutableList.of();
+    }
+
+    @Override
+    public void close() {
+        timers.clear();
+    }
+
+    static final class Timer {
+        private final NativeRule rule;
+        private final EnOceanId device;
+        private final long dueMillis;
+        private boolean cancelled;
+
+        private Timer(final NativeRule rule, final EnOceanId device, final long dueMillis) {
+            this.rule = rule;
+            this.device = device;
+            this.dueMillis = dueMillis;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package la.jarve.automata.rules;
+
+public enum OverflowPolicy {
+    /** Producers wait until the rules thread has made room. */
+    BLOCK,
+    /** The oldest queued event is dropped to make room. */
+    DROP_OLDEST,
+    /**
+     * A queued event of the same device and parameter is replaced by the newer one. When the
+     * queue is full of distinct device parameters, the oldest one is dropped.
+     */
+    COALESCE
+}
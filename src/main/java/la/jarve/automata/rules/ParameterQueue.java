@@ -0,0 +1,147 @@
+package la.jarve.automata.rules;
+
+import com.google.common.base.Preconditions;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import eu.aleon.aleoncean.device.DeviceParameter;
+import la.jarve.automata.core.Parameter;
+
+/**
+ * Bounded queue feeding Parameters to the single rules thread.
+ */
+public class ParameterQueue {
+
+    private final int capacity;
+    @NotNull
+    private final OverflowPolicy overflowPolicy;
+    // Keyed by the Parameter itself unless coalescing, which keeps the queue order on replace
+    private final LinkedHashMap<Object, Parameter> queue = new LinkedHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public ParameterQueue(final int capacity, @NotNull final OverflowPolicy overflowPolicy) {
+        Preconditions.checkArgument(capacity > 0);
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public void put(@NotNull final Parameter parameter) throws InterruptedException {
+        final Object key = overflowPolicy == OverflowPolicy.COALESCE ? new CoalesceKey(parameter) : parameter;
+        lock.lockInterruptibly();
+        try {
+            if (overflowPolicy == OverflowPolicy.COALESCE && queue.containsKey(key)) {
+                queue.put(key, parameter);
+                coalesced.incrementAndGet();
+                return;
+            }
+            while (queue.size() >= capacity) {
+                if (overflowPolicy == OverflowPolicy.BLOCK) {
+                    notFull.await();
+                } else {
+                    final Iterator<Parameter> iterator = queue.values().iterator();
+                    iterator.next();
+                    iterator.remove();
+                    dropped.incrementAndGet();
+                }
+            }
+            queue.put(key, parameter);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits up to timeout for the first Parameter, then keeps collecting until maxElements
+     * have been drained or linger has passed since the first one.
+     *
+     * @return number of Parameters added to the batch
+     */
+    public int drainTo(@NotNull final List<Parameter> batch, final int maxElements,
+                       final long timeout, final long linger, @NotNull final TimeUnit unit)
+            throws InterruptedException {
+        int drained = 0;
+        long remaining = unit.toNanos(timeout);
+        long lingerDeadline = 0;
+        lock.lockInterruptibly();
+        try {
+            while (drained < maxElements) {
+                if (queue.isEmpty()) {
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    remaining = notEmpty.awaitNanos(remaining);
+                    if (drained > 0) {
+                        remaining = lingerDeadline - System.nanoTime();
+                    }
+                    continue;
+                }
+                final Iterator<Parameter> iterator = queue.values().iterator();
+                batch.add(iterator.next());
+                iterator.remove();
+                notFull.signal();
+                if (drained++ == 0) {
+                    lingerDeadline = System.nanoTime() + unit.toNanos(linger);
+                    remaining = unit.toNanos(linger);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return drained;
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    private static final class CoalesceKey {
+        private final Object source;
+        private final DeviceParameter parameter;
+
+        private CoalesceKey(@NotNull final Parameter parameter) {
+            this.source = parameter.getSource();
+            this.parameter = parameter.getParameter();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof CoalesceKey)) {
+                return false;
+            }
+            final CoalesceKey other = (CoalesceKey) o;
+            return source == other.source && parameter == other.parameter;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(source) + Objects.hashCode(parameter);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package la.jarve.automata.rules;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+import la.jarve.automata.core.Parameter;
+
+/**
+ * Rules engine behind RulesService. Only used from the rules thread, apart from being
+ * created by a RulesEngineFactory on the thread reloading the rules.
+ */
+public interface RulesEngine {
+
+    void insert(@NotNull Parameter parameter);
+
+    /**
+     * Inserts the parameters of the engine these rules replace. They keep their timestamps,
+     * and matches made up of them alone do not fire, as the replaced rules handled them.
+     */
+    void carryOver(@NotNull List<Parameter> parameters);
+
+    /**
+     * Fires the rules matching the inserted parameters, and the timers which are due.
+     *
+     * @return number of rules fired
+     */
+    int fire();
+
+    /**
+     * @return System.currentTimeMillis() at which the next timer is due, or Long.MAX_VALUE
+     * when the engine has no timers to fire
+     */
+    long getNextTimerMillis();
+
+    /**
+     * Retracts the parameters inserted before oldestMillis, and the oldest ones above maxCount.
+     *
+     * @return number of parameters retracted
+     */
+    int retract(long oldestMillis, int maxCount);
+
+    long getFactCount();
+
+    /**
+     * Parameters the engine still holds, oldest first, to be carried over to reloaded rules.
+     */
+    @NotNull
+    List<Parameter> getParameters();
+
+    void close();
+}
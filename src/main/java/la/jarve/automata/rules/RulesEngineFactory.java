@@ -0,0 +1,13 @@
+package la.jarve.automata.rules;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Loads the rules file into a new RulesEngine, on start and whenever the file changes.
+ */
+public interface RulesEngineFactory {
+    @NotNull
+    RulesEngine create() throws IOException;
+}
@@ -0,0 +1,8 @@
+package la.jarve.automata.rules;
+
+public enum RulesEngineType {
+    /** Drools rules file, run in stream mode. */
+    DROOLS,
+    /** YAML rules run by NativeRulesEngine, without loading Drools. */
+    NATIVE
+}
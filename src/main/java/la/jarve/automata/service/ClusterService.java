@@ -0,0 +1,103 @@
+package la.jarve.automata.service;
+
+import com.google.common.util.concurrent.AbstractIdleService;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+import eu.aleon.aleoncean.device.Device;
+import eu.aleon.aleoncean.device.DeviceParameter;
+import eu.aleon.aleoncean.packet.ESP3Packet;
+import eu.aleon.aleoncean.packet.ESP3PacketFactory;
+import eu.aleon.aleoncean.rxtx.ESP3Connector;
+import la.jarve.automata.cluster.ClusterNode;
+import la.jarve.automata.core.DeviceRoutingTable;
+import la.jarve.automata.core.TimedParameterUpdatedEvent;
+import la.jarve.automata.util.QueuedAction;
+import la.jarve.automata.util.ValueCodec;
+
+/**
+ * Runs the ClusterNode: sends the parameter changes of the local devices to the peers,
+ * publishes the ones of devices only the peers have, and has the TransmitService transmit the
+ * packets the peers write through this node, within its airtime budget. Radio packets are
+ * forwarded by the connectors themselves.
+ */
+public class ClusterService extends AbstractIdleService implements ClusterNode.Listener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClusterService.class);
+
+    @NotNull
+    private final ClusterNode node;
+    @NotNull
+    private final DeviceService deviceService;
+    @NotNull
+    private final TransmitService transmitService;
+    @NotNull
+    private final ESP3Connector localConnector;
+    private QueuedAction<TimedParameterUpdatedEvent> subscription;
+
+    /**
+     * @param localConnector connector of a local gateway, which transmits the packets of the peers
+     */
+    public ClusterService(@NotNull final ClusterNode node, @NotNull final DeviceService deviceService,
+                          @NotNull final TransmitService transmitService, @NotNull final ESP3Connector localConnector) {
+        this.node = node;
+        this.deviceService = deviceService;
+        this.transmitService = transmitService;
+        this.localConnector = localConnector;
+    }
+
+    @NotNull
+    public ClusterNode getNode() {
+        return node;
+    }
+
+    @Override
+    public void onWrite(@NotNull final String nodeId, @NotNull final byte[] packet) {
+        final ESP3Packet parsed = ESP3PacketFactory.fromRaw(packet);
+        if (parsed == null) {
+            LOGGER.warn("Ignoring invalid packet written by {}", nodeId);
+        } else if (!transmitService.submitRemote(nodeId, localConnector, parsed)) {
+            LOGGER.warn("Transmit queue full, dropping packet written by {}", nodeId);
+        }
+    }
+
+    @Override
+    public void onParameter(@NotNull final String nodeId, final int device, @NotNull final DeviceParameter parameter,
+                            @NotNull final Object value) {
+        deviceService.publishRemoteParameter(nodeId, DeviceRoutingTable.fromInt(device), parameter, value);
+    }
+
+    /**
+     * Sends the changes of the local devices only, the ones from peers are not sent back.
+     */
+    private void forward(@NotNull final TimedParameterUpdatedEvent event) {
+        final DeviceParameter parameter = event.getParameter();
+        final Object value = event.getNewValue();
+        if (!(event.getSource() instanceof Device) || parameter == null || !ValueCodec.isSupported(value)) {
+            return;
+        }
+        final Device device = (Device) event.getSource();
+        node.broadcastParameter(DeviceRoutingTable.toInt(device.getAddressRemote()), parameter, value);
+    }
+
+    @Override
+    protected void startUp() throws Exception {
+        node.setListener(this);
+        node.start();
+        deviceService.awaitRunning(5, TimeUnit.MINUTES);
+        subscription = deviceService.subscribeParameters("cluster-forward", this::forward);
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+        if (subscription != null) {
+            subscription.close();
+        }
+        node.close();
+        node.setListener(null);
+    }
+}
@@ -0,0 +1,77 @@
+package la.jarve.automata.service;
+
+import com.google.common.collect.ImmutableList;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import eu.aleon.aleoncean.device.Device;
+import eu.aleon.aleoncean.device.DeviceParameter;
+import eu.aleon.aleoncean.packet.EnOceanId;
+import la.jarve.automata.core.PipelineTrace;
+
+/**
+ * Sets one parameter of the devices of one id, resolved once by DeviceService.command. Rules
+ * get these as globals, so their consequences queue the command without looking up the devices.
+ *
+ * DeviceService binds the handle again when the devices are updated; a handle whose device
+ * has been removed fails like setDeviceParameter of an unknown device.
+ */
+public final class DeviceCommand {
+
+    @NotNull
+    private final String idOrName;
+    @NotNull
+    private final DeviceParameter parameter;
+    @NotNull
+    private final TransmitService transmitService;
+    private volatile Binding binding;
+
+    DeviceCommand(@NotNull final String idOrName, @NotNull final DeviceParameter parameter,
+                  @NotNull final TransmitService transmitService) {
+        this.idOrName = idOrName;
+        this.parameter = parameter;
+        this.transmitService = transmitService;
+    }
+
+    public void set(@Nullable final Object value) {
+        set(value, TransmitService.Priority.RULE);
+    }
+
+    public void set(@Nullable final Object value, @NotNull final TransmitService.Priority priority) {
+        final Binding current = binding;
+        if (current == null) {
+            throw new RuntimeException(String.format("Unknown device: %s", idOrName));
+        }
+        transmitService.submit(current.key, current.devices, value, priority, PipelineTrace.getOrigin());
+    }
+
+    @NotNull
+    public String getIdOrName() {
+        return idOrName;
+    }
+
+    @NotNull
+    public DeviceParameter getParameter() {
+        return parameter;
+    }
+
+    /**
+     * @param devices the devices of the id having the parameter, none to unbind the handle
+     */
+    void bind(@Nullable final EnOceanId enOceanId, @NotNull final ImmutableList<Device> devices) {
+        binding = enOceanId != null && !devices.isEmpty()
+                ? new Binding(new TransmitService.CommandKey(enOceanId, parameter), devices)
+                : null;
+    }
+
+    private static final class Binding {
+        private final TransmitService.CommandKey key;
+        private final ImmutableList<Device> devices;
+
+        private Binding(final TransmitService.CommandKey key, final ImmutableList<Device> devices) {
+            this.key = key;
+            this.devices = devices;
+        }
+    }
+}
@@ -3,63 +3,172 @@ package la.jarve.automata.service;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.ImmutableBiMap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableMultiset;
 import com.google.common.collect.Multimap;
 import com.google.common.util.concurrent.AbstractIdleService;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import eu.aleon.aleoncean.device.Device;
-import eu.aleon.aleoncean.device.DeviceFactory;
 import eu.aleon.aleoncean.device.DeviceParameter;
 import eu.aleon.aleoncean.device.DeviceParameterUpdatedEvent;
+import eu.aleon.aleoncean.device.DeviceParameterUpdatedInitiation;
+import eu.aleon.aleoncean.device.DeviceParameterUpdatedListener;
 import eu.aleon.aleoncean.device.IllegalDeviceParameterException;
-import eu.aleon.aleoncean.device.StandardDevice;
 import eu.aleon.aleoncean.packet.EnOceanId;
-import eu.aleon.aleoncean.packet.RadioPacket;
+import eu.aleon.aleoncean.rxtx.ESP3Connector;
 import la.jarve.automata.DeviceRegistry;
+import la.jarve.automata.ParameterFilterConfiguration;
+import la.jarve.automata.cluster.RemoteDeviceSource;
+import la.jarve.automata.core.DeviceRoutingTable;
+import la.jarve.automata.core.ParameterFilter;
+import la.jarve.automata.core.PipelineTrace;
+import la.jarve.automata.core.ReceivedPacket;
+import la.jarve.automata.core.TimedParameterUpdatedEvent;
+import la.jarve.automata.metrics.Histogram;
+import la.jarve.automata.metrics.Meter;
+import la.jarve.automata.state.StateJournal;
+import la.jarve.automata.util.QueuedAction;
+import la.jarve.enocean.device.DeviceConstructor;
+import la.jarve.enocean.device.RestorableDevice;
+import la.jarve.enocean.gateway.MultiGatewayConnector;
 import rx.Observable;
 import rx.Subscription;
-import rx.schedulers.Schedulers;
+import rx.functions.Action1;
 import rx.subjects.PublishSubject;
 
 public class DeviceService extends AbstractIdleService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DeviceService.class);
+    private static final int SUBSCRIBER_QUEUE_CAPACITY = 1024;
 
     @NotNull
     private final RadioService radioService;
-    private Multimap<EnOceanId, Device> deviceMap;
     @NotNull
-    private final PublishSubject<DeviceParameterUpdatedEvent> parameterSubject = PublishSubject.create();
+    private final TransmitService transmitService;
+    // Swapped as a whole when the configuration is reloaded, see updateDevices
+    private volatile Multimap<EnOceanId, Device> deviceMap;
+    private volatile DeviceRoutingTable routingTable;
+    private final AtomicLong foreignPackets = new AtomicLong();
     @NotNull
-    public final Observable<DeviceParameterUpdatedEvent> parameterObservable =
-            parameterSubject.asObservable().observeOn(Schedulers.computation());
-    private final Multimap<EnOceanId, String> inputDeviceMap;
+    private final PublishSubject<TimedParameterUpdatedEvent> parameterSubject = PublishSubject.create();
+    @NotNull
+    // Subscribers run on the thread publishing the update, mostly the RadioService thread, so
+    // anything which may block subscribes through subscribeParameters instead, except the
+    // rules, whose ParameterQueue applies their own overflow policy
+    public final Observable<TimedParameterUpdatedEvent> parameterObservable = parameterSubject.asObservable();
+    private volatile Multimap<EnOceanId, String> inputDeviceMap;
     private Subscription radioSubscription;
     @NotNull
     private final DeviceRegistry deviceRegistry;
     @NotNull
     private final EnOceanId senderId;
     @NotNull
-    private final BiMap<String, EnOceanId> names;
+    private volatile BiMap<String, EnOceanId> names;
+    @NotNull
+    private final ParameterFilter parameterFilter = new ParameterFilter();
+    // One instance, so it can be removed from the devices dropped by updateDevices
+    private final DeviceParameterUpdatedListener parameterListener = this::publishParameter;
+    private final Histogram routingLatencyMicros = new Histogram();
+    @NotNull
+    private final Map<EnOceanId, Meter> eventRates = new ConcurrentHashMap<>();
+    @Nullable
+    private final StateJournal stateJournal;
+    // Handles given out by command(), bound again by updateDevices
+    private final Map<List<Object>, DeviceCommand> commands = new ConcurrentHashMap<>();
 
     public DeviceService(@NotNull final RadioService radioService,
+                         @NotNull final TransmitService transmitService,
                          @NotNull final DeviceRegistry deviceRegistry,
                          @NotNull final EnOceanId senderId,
                          @NotNull final Multimap<EnOceanId, String> inputDeviceMap,
-                         @NotNull final Map<String, EnOceanId> names) {
+                         @NotNull final Map<String, EnOceanId> names,
+                         @NotNull final List<ParameterFilterConfiguration> parameterFilters,
+                         @Nullable final StateJournal stateJournal) {
         this.radioService = radioService;
+        this.transmitService = transmitService;
         this.deviceRegistry = deviceRegistry;
+        this.stateJournal = stateJournal;
         this.senderId = senderId;
         this.inputDeviceMap = ImmutableMultimap.copyOf(inputDeviceMap);
-        this.names = ImmutableBiMap.copyOf(names);
+        this.names = internedNames(names);
+        for (EnOceanId enOceanId : this.inputDeviceMap.keySet()) {
+            eventRates.put(enOceanId, new Meter());
+        }
+        for (ParameterFilterConfiguration filter : parameterFilters) {
+            final EnOceanId device = filter.device != null ? idOrNameToId(filter.device) : null;
+            parameterFilter.addRule(device, filter.parameter, filter.mode, filter.threshold, filter.intervalMillis);
+        }
+    }
+
+    public long getSuppressedEvents() {
+        return parameterFilter.getSuppressed();
+    }
+
+    /**
+     * Devices by remote id, available once the service is running.
+     */
+    @NotNull
+    public Multimap<EnOceanId, Device> getDevices() {
+        Preconditions.checkState(deviceMap != null, "DeviceService is not running");
+        return deviceMap;
+    }
+
+    /**
+     * Current value of a parameter of a device, or the last-known value of the previous run
+     * while a device which cannot be restored has not reported it yet.
+     */
+    @Nullable
+    public Object getParameterValue(@NotNull final Device device, @NotNull final DeviceParameter parameter) {
+        Object value;
+        try {
+            value = device.getByParameter(parameter);
+        } catch (IllegalDeviceParameterException e) {
+            return null;
+        }
+        if (value == null && stateJournal != null && !(device instanceof RestorableDevice)) {
+            value = stateJournal.get(DeviceRoutingTable.toInt(device.getAddressRemote()), parameter);
+        }
+        return value;
+    }
+
+    /**
+     * Time from RadioService publishing a packet to its devices having parsed it.
+     */
+    @NotNull
+    public Histogram getRoutingLatencyMicros() {
+        return routingLatencyMicros;
+    }
+
+    /**
+     * Parameter updates per configured device, including the filtered ones. Devices added by
+     * updateDevices get a new meter, and the meters of removed devices are dropped.
+     */
+    @NotNull
+    public Map<EnOceanId, Meter> getEventRates() {
+        return eventRates;
+    }
+
+    /**
+     * Number of radio packets dropped because they were sent by an unconfigured device.
+     */
+    public long getForeignPackets() {
+        return foreignPackets.get();
     }
 
     public EnOceanId idForName(final String name) {
@@ -78,69 +187,328 @@ public class DeviceService extends AbstractIdleService {
         }
     }
 
+    /**
+     * Subscribes the action to the parameter updates on a thread of its own with the name,
+     * fed through a bounded queue. Updates which do not fit are dropped, the radio thread
+     * never waits for the action.
+     */
+    @NotNull
+    public QueuedAction<TimedParameterUpdatedEvent> subscribeParameters(
+            @NotNull final String name, @NotNull final Action1<? super TimedParameterUpdatedEvent> action) {
+        return QueuedAction.subscribe(parameterObservable.retry(), name, SUBSCRIBER_QUEUE_CAPACITY, action);
+    }
+
     public void setDeviceParameter(final String idOrName, final DeviceParameter parameter,
-                                   Object value) {
-        EnOceanId enOceanId = idForName(idOrName);
-        if (enOceanId == null) {
-            enOceanId = new EnOceanId(idOrName);
+                                   Object value) throws IllegalDeviceParameterException {
+        setDeviceParameter(idOrNameToId(idOrName), parameter, value, TransmitService.Priority.RULE);
+    }
+
+    public void setDeviceParameter(final String idOrName, final DeviceParameter parameter,
+                                   Object value, final TransmitService.Priority priority)
+            throws IllegalDeviceParameterException {
+        setDeviceParameter(idOrNameToId(idOrName), parameter, value, priority);
+    }
+
+    /**
+     * Id of a device given by name or by id.
+     */
+    public EnOceanId idOrNameToId(final String idOrName) {
+        final EnOceanId enOceanId = idForName(idOrName);
+        return enOceanId != null ? enOceanId : new EnOceanId(idOrName);
+    }
+
+    /**
+     * Handle which sets the parameter of a device without looking it up again. The same
+     * handle is returned for the same device and parameter.
+     *
+     * @throws RuntimeException if there is no such device or it has no such parameter
+     */
+    @NotNull
+    public synchronized DeviceCommand command(@NotNull final String idOrName, @NotNull final DeviceParameter parameter) {
+        Preconditions.checkState(deviceMap != null, "DeviceService is not running");
+        final List<Object> key = Arrays.<Object>asList(idOrName, parameter);
+        final DeviceCommand command = commands.getOrDefault(key, new DeviceCommand(idOrName, parameter, transmitService));
+        if (!bind(command)) {
+            throw new RuntimeException(String.format("No device %s with parameter %s", idOrName, parameter));
+        }
+        commands.putIfAbsent(key, command);
+        return command;
+    }
+
+    /**
+     * Binds the command to every device of its id which has its parameter.
+     *
+     * @return false if there is none, the command is then unbound
+     */
+    private boolean bind(@NotNull final DeviceCommand command) {
+        final EnOceanId enOceanId;
+        try {
+            enOceanId = idOrNameToId(command.getIdOrName());
+        } catch (IllegalArgumentException e) {
+            LOGGER.debug("Not a device name or id: {}", command.getIdOrName());
+            command.bind(null, ImmutableList.<Device>of());
+            return false;
         }
-        setDeviceParameter(enOceanId, parameter, value);
+        final ImmutableList<Device> devices = TransmitService.supporting(deviceMap.get(enOceanId), command.getParameter());
+        command.bind(enOceanId, devices);
+        return !devices.isEmpty();
+    }
+
+    public void setDeviceParameter(final EnOceanId enOceanId, final DeviceParameter parameter,
+                                   Object value) throws IllegalDeviceParameterException {
+        setDeviceParameter(enOceanId, parameter, value, TransmitService.Priority.RULE);
     }
 
+    /**
+     * Queues the parameter change for the TransmitService, which sets it on every device of
+     * the id supporting the parameter.
+     *
+     * @throws IllegalDeviceParameterException if no device of the id has the parameter
+     */
     public void setDeviceParameter(final EnOceanId enOceanId, final DeviceParameter parameter,
-                                   Object value) {
+                                   Object value, final TransmitService.Priority priority)
+            throws IllegalDeviceParameterException {
         final Collection<Device> devices = deviceMap.get(enOceanId);
-        boolean didSucceed = false;
-        for (Device device : devices) {
-            try {
-                device.setByParameter(parameter, value);
-                didSucceed = true;
-            } catch (IllegalDeviceParameterException ignored) {
-            }
-        }
-        if (!didSucceed) {
-            throw new RuntimeException(String.format("Unknown device parameter: %s", parameter));
+        if (devices.isEmpty()) {
+            throw new RuntimeException(String.format("Unknown device: %s", enOceanId));
         }
+        transmitService.submit(enOceanId, devices, parameter, value, priority, PipelineTrace.getOrigin());
     }
 
     private void setupDeviceMap() {
         Preconditions.checkState(deviceMap == null);
 
         final ImmutableMultimap.Builder<EnOceanId, Device> deviceMapBuilder = ImmutableMultimap.<EnOceanId, Device>builder();
-        for (Map.Entry<EnOceanId, String> entry : inputDeviceMap.entries()) {
-            final EnOceanId enOceanId = entry.getKey();
-            final String type = entry.getValue();
+        for (Map.Entry<EnOceanId, Collection<String>> entry : inputDeviceMap.asMap().entrySet()) {
+            deviceMapBuilder.putAll(entry.getKey(), createDevices(entry.getKey(), entry.getValue()));
+        }
+        deviceMap = deviceMapBuilder.build();
+        routingTable = new DeviceRoutingTable(deviceMap);
+    }
 
-            Class<? extends StandardDevice> deviceClass = deviceRegistry.getClassByType(type);
-            if (deviceClass != null) {
-                StandardDevice device = DeviceFactory.createFromClass(
-                        deviceClass, radioService.getConnector(), enOceanId, senderId);
-                deviceMapBuilder.put(enOceanId, device);
+    @NotNull
+    private List<Device> createDevices(@NotNull final EnOceanId enOceanId, @NotNull final Collection<String> types) {
+        final List<Device> devices = new ArrayList<>(types.size());
+        for (String type : types) {
+            final DeviceConstructor constructor = deviceRegistry.getConstructorByType(type);
+            if (constructor != null) {
+                devices.add(constructor.create(connectorFor(enOceanId), enOceanId, senderId));
             } else {
                 LOGGER.error("Cannot find device type '{}", type);
                 throw new RuntimeException(String.format("Cannot find device type %s", type));
             }
         }
-        deviceMap = deviceMapBuilder.build();
+        return devices;
     }
 
-    private void handlePacket(@NotNull final RadioPacket radioPacket) {
-        Preconditions.checkNotNull(deviceMap);
-        LOGGER.debug("Handling radioPacket {}", radioPacket);
-        deviceMap.get(radioPacket.getSenderId()).stream()
-                .forEach(remoteDevice -> remoteDevice.parseRadioPacket(radioPacket));
+    /**
+     * Applies a changed configuration of the devices while running. Devices whose types are
+     * unchanged are kept as they are, with their state; the devices of added ids and of ids
+     * whose types changed are created, and the devices of removed ids are dropped. The new
+     * devices and names are swapped in at once, so packets being routed meanwhile go to either
+     * the old or the new devices.
+     *
+     * @return true if anything changed
+     */
+    public synchronized boolean updateDevices(@NotNull final Multimap<EnOceanId, String> newInputDeviceMap,
+                                              @NotNull final Map<String, EnOceanId> newNames) {
+        Preconditions.checkState(deviceMap != null, "DeviceService is not running");
+        final Multimap<EnOceanId, String> oldInputDeviceMap = inputDeviceMap;
+        final Multimap<EnOceanId, Device> oldDeviceMap = deviceMap;
+        final ImmutableMultimap<EnOceanId, String> updatedInputDeviceMap = ImmutableMultimap.copyOf(newInputDeviceMap);
+        final ImmutableBiMap<String, EnOceanId> updatedNames = internedNames(newNames);
+
+        // Create every new device before swapping anything, so an unknown type leaves all as it was
+        final ImmutableMultimap.Builder<EnOceanId, Device> deviceMapBuilder = ImmutableMultimap.builder();
+        final List<Device> added = new ArrayList<>();
+        for (Map.Entry<EnOceanId, Collection<String>> entry : updatedInputDeviceMap.asMap().entrySet()) {
+            final EnOceanId enOceanId = entry.getKey();
+            if (sameTypes(oldInputDeviceMap.get(enOceanId), entry.getValue())) {
+                deviceMapBuilder.putAll(enOceanId, oldDeviceMap.get(enOceanId));
+            } else {
+                final List<Device> devices = createDevices(enOceanId, entry.getValue());
+                deviceMapBuilder.putAll(enOceanId, devices);
+                added.addAll(devices);
+            }
+        }
+        final ImmutableMultimap<EnOceanId, Device> updatedDeviceMap = deviceMapBuilder.build();
+        final List<Device> removed = new ArrayList<>();
+        for (Map.Entry<EnOceanId, Collection<String>> entry : oldInputDeviceMap.asMap().entrySet()) {
+            if (!sameTypes(entry.getValue(), updatedInputDeviceMap.get(entry.getKey()))) {
+                removed.addAll(oldDeviceMap.get(entry.getKey()));
+            }
+        }
+        if (added.isEmpty() && removed.isEmpty() && updatedNames.equals(names)) {
+            return false;
+        }
+
+        for (Device device : added) {
+            restoreState(device.getAddressRemote(), device);
+            device.addParameterUpdatedListener(parameterListener);
+        }
+        final DeviceRoutingTable updatedRoutingTable = new DeviceRoutingTable(updatedDeviceMap);
+        for (EnOceanId enOceanId : updatedInputDeviceMap.keySet()) {
+            eventRates.computeIfAbsent(enOceanId, id -> new Meter());
+        }
+        deviceMap = updatedDeviceMap;
+        routingTable = updatedRoutingTable;
+        inputDeviceMap = updatedInputDeviceMap;
+        names = updatedNames;
+        eventRates.keySet().retainAll(updatedInputDeviceMap.keySet());
+        for (Device device : removed) {
+            device.removeParameterUpdatedListener(parameterListener);
+        }
+        parameterFilter.removeDevices(removed);
+        for (DeviceCommand command : commands.values()) {
+            if (!bind(command)) {
+                LOGGER.warn("Command {} of {} has no device any more", command.getParameter(), command.getIdOrName());
+            }
+        }
+        LOGGER.info("Updated devices: {} created, {} removed, {} names", added.size(), removed.size(),
+                updatedNames.size());
+        return true;
+    }
+
+    /**
+     * Names are interned, so the rules compare the names of the Parameters by identity first.
+     */
+    @NotNull
+    private static ImmutableBiMap<String, EnOceanId> internedNames(@NotNull final Map<String, EnOceanId> names) {
+        final ImmutableBiMap.Builder<String, EnOceanId> builder = ImmutableBiMap.builder();
+        for (Map.Entry<String, EnOceanId> entry : names.entrySet()) {
+            builder.put(entry.getKey().intern(), entry.getValue());
+        }
+        return builder.build();
+    }
+
+    private static boolean sameTypes(@NotNull final Collection<String> types, @NotNull final Collection<String> other) {
+        return ImmutableMultiset.copyOf(types).equals(ImmutableMultiset.copyOf(other));
+    }
+
+    /**
+     * With several gateways, each device sends through the one which hears it best.
+     */
+    @NotNull
+    private ESP3Connector connectorFor(@NotNull final EnOceanId enOceanId) {
+        final ESP3Connector connector = radioService.getConnector();
+        return connector instanceof MultiGatewayConnector
+                ? ((MultiGatewayConnector) connector).forDevice(enOceanId)
+                : connector;
+    }
+
+    private void handlePacket(@NotNull final ReceivedPacket receivedPacket) {
+        Preconditions.checkNotNull(routingTable);
+        final Device[] devices = routingTable.get(DeviceRoutingTable.toInt(receivedPacket.getPacket().getSenderId()));
+        if (devices == null) {
+            foreignPackets.incrementAndGet();
+            return;
+        }
+        LOGGER.debug("Handling radioPacket {}", receivedPacket);
+        PipelineTrace.setOrigin(receivedPacket.getReceivedNanos());
+        try {
+            for (Device remoteDevice : devices) {
+                remoteDevice.parseRadioPacket(receivedPacket.getPacket());
+            }
+        } finally {
+            PipelineTrace.clearOrigin();
+        }
+        routingLatencyMicros.record(
+                TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - receivedPacket.getPublishedNanos()));
     }
 
     private void subscribeToParameters() {
         Preconditions.checkNotNull(deviceMap);
         deviceMap.values().stream()
-                .forEach(rd -> rd.addParameterUpdatedListener(parameterSubject::onNext));
+                .forEach(rd -> rd.addParameterUpdatedListener(parameterListener));
+    }
+
+    /**
+     * Restores the last-known parameter values of the devices from the previous run.
+     */
+    private void restoreState() throws IOException {
+        Preconditions.checkNotNull(deviceMap);
+        if (stateJournal == null) {
+            return;
+        }
+        stateJournal.open();
+        for (Map.Entry<EnOceanId, Device> entry : deviceMap.entries()) {
+            restoreState(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void restoreState(@NotNull final EnOceanId enOceanId, @NotNull final Device device) {
+        if (stateJournal == null || !(device instanceof RestorableDevice)) {
+            return;
+        }
+        final int id = DeviceRoutingTable.toInt(enOceanId);
+        for (DeviceParameter parameter : device.getParameters()) {
+            final Object value = stateJournal.get(id, parameter);
+            if (value != null && !((RestorableDevice) device).restoreParameter(parameter, value)) {
+                LOGGER.warn("Cannot restore {} of {} to {}", parameter, enOceanId, value);
+            }
+        }
+    }
+
+    private void publishParameter(@NotNull DeviceParameterUpdatedEvent event) {
+        if (event.getSource() instanceof Device) {
+            final EnOceanId enOceanId = ((Device) event.getSource()).getAddressRemote();
+            final Meter meter = eventRates.get(enOceanId);
+            if (meter != null) {
+                meter.mark();
+            }
+            if (stateJournal != null) {
+                event = withLastKnownValue(event, DeviceRoutingTable.toInt(enOceanId));
+            }
+        }
+        // Events come from the radio, transmit and cluster threads
+        synchronized (parameterSubject) {
+            if (parameterFilter.accept(event)) {
+                final long now = System.nanoTime();
+                final long origin = PipelineTrace.getOrigin();
+                parameterSubject.onNext(new TimedParameterUpdatedEvent(event, origin != 0 ? origin : now, now));
+            }
+        }
+    }
+
+    /**
+     * Publishes a parameter change of a device of a peer node, unless the device is configured
+     * here too and thus decoded from the radio packets forwarded by the peer.
+     */
+    public void publishRemoteParameter(@NotNull final String nodeId, @NotNull final EnOceanId enOceanId,
+                                       @NotNull final DeviceParameter parameter, @NotNull final Object value) {
+        if (deviceMap == null || deviceMap.containsKey(enOceanId)) {
+            return;
+        }
+        publishParameter(new DeviceParameterUpdatedEvent(new RemoteDeviceSource(nodeId, enOceanId), parameter,
+                DeviceParameterUpdatedInitiation.RADIO_PACKET, null, value));
+    }
+
+    /**
+     * Records the new value, and fills in the old value from the previous run for devices
+     * which have not been restored.
+     */
+    @NotNull
+    private DeviceParameterUpdatedEvent withLastKnownValue(@NotNull final DeviceParameterUpdatedEvent event,
+                                                           final int id) {
+        Preconditions.checkNotNull(stateJournal);
+        final DeviceParameter parameter = event.getParameter();
+        if (parameter == null) {
+            return event;
+        }
+        final Object lastKnown = event.getOldValue() == null ? stateJournal.get(id, parameter) : null;
+        stateJournal.put(id, parameter, event.getNewValue());
+        if (lastKnown == null) {
+            return event;
+        }
+        return new DeviceParameterUpdatedEvent(event.getSource(), parameter, event.getInitiation(), lastKnown,
+                event.getNewValue());
     }
 
     @Override
     protected void startUp() throws Exception {
         LOGGER.debug("Starting up DeviceService");
         setupDeviceMap();
+        restoreState();
         subscribeToParameters();
         radioService.awaitRunning(5, TimeUnit.MINUTES);
         radioSubscription = radioService.radioPacketObservable.subscribe(this::handlePacket);
@@ -152,5 +520,8 @@ public class DeviceService extends AbstractIdleService {
         if (radioSubscription != null && !radioSubscription.isUnsubscribed()) {
             radioSubscription.unsubscribe();
         }
+        if (stateJournal != null) {
+            stateJournal.close();
+        }
     }
 }
@@ -0,0 +1,193 @@
+package la.jarve.automata.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import la.jarve.automata.HttpConfiguration;
+import la.jarve.automata.core.TimedParameterUpdatedEvent;
+import la.jarve.automata.http.DeviceStateSnapshot;
+import la.jarve.automata.http.DeviceStateTracker;
+import la.jarve.automata.http.EventStreamBroadcaster;
+import la.jarve.automata.util.QueuedAction;
+import la.jarve.automata.util.Threads;
+
+/**
+ * Read-only HTTP API for the current parameter values of the devices.
+ *
+ * GET /api/devices returns the state with an ETag. With If-None-Match and a wait query
+ * parameter in milliseconds the request is held until the state changes. GET
+ * /api/devices/events streams each new state as server-sent events, written by one
+ * broadcasting thread rather than the request threads.
+ */
+public class HttpService extends AbstractIdleService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HttpService.class);
+    private static final String DEVICES_PATH = "/api/devices";
+    private static final String EVENTS_PATH = "/api/devices/events";
+    private static final long KEEPALIVE_MILLIS = 15 * 1000;
+
+    @NotNull
+    private final DeviceService deviceService;
+    @NotNull
+    private final HttpConfiguration configuration;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private DeviceStateTracker tracker;
+    // Versions restart at zero with the tracker, so ETags and event ids carry the start time too
+    private String epoch;
+    private QueuedAction<TimedParameterUpdatedEvent> subscription;
+    private volatile EventStreamBroadcaster broadcaster;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public HttpService(@NotNull final DeviceService deviceService, @NotNull final HttpConfiguration configuration) {
+        this.deviceService = deviceService;
+        this.configuration = configuration;
+    }
+
+    @Override
+    protected void startUp() throws Exception {
+        deviceService.awaitRunning(5, TimeUnit.MINUTES);
+        tracker = new DeviceStateTracker(deviceService.getDevices(), deviceService::nameForId,
+                deviceService::getParameterValue);
+        epoch = Long.toString(System.currentTimeMillis(), 36);
+        subscription = deviceService.subscribeParameters("http-tracker", tracker::update);
+        broadcaster = new EventStreamBroadcaster(tracker, objectMapper, epoch, KEEPALIVE_MILLIS);
+        broadcaster.start();
+
+        executor = Executors.newFixedThreadPool(configuration.maxClients, task -> Threads.newThread("http", task));
+        server = HttpServer.create(new InetSocketAddress(configuration.address, configuration.port), 0);
+        server.setExecutor(executor);
+        server.createContext(DEVICES_PATH, this::handle);
+        server.start();
+        LOGGER.info("HTTP API listening on {}:{}", configuration.address, configuration.port);
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+        if (server != null) {
+            server.stop(0);
+        }
+        if (broadcaster != null) {
+            broadcaster.close();
+        }
+        if (executor != null) {
+            // Interrupts the long polls
+            executor.shutdownNow();
+        }
+        if (subscription != null) {
+            subscription.close();
+        }
+    }
+
+    /**
+     * Number of open server-sent event streams.
+     */
+    public int getEventStreams() {
+        final EventStreamBroadcaster broadcaster = this.broadcaster;
+        return broadcaster != null ? broadcaster.size() : 0;
+    }
+
+    private void handle(@NotNull final HttpExchange exchange) throws IOException {
+        boolean streaming = false;
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            final String path = exchange.getRequestURI().getPath();
+            if (DEVICES_PATH.equals(path)) {
+                handleDevices(exchange);
+            } else if (EVENTS_PATH.equals(path)) {
+                broadcaster.add(exchange, lastEventVersion(exchange.getRequestHeaders().getFirst("Last-Event-ID")));
+                streaming = true;
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // The broadcaster closes the event streams
+            if (!streaming) {
+                exchange.close();
+            }
+        }
+    }
+
+    private void handleDevices(@NotNull final HttpExchange exchange) throws IOException, InterruptedException {
+        DeviceStateSnapshot snapshot = tracker.getSnapshot();
+        final String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (etag(snapshot).equals(ifNoneMatch)) {
+            final long waitMillis = Math.min(queryLong(exchange, "wait", 0), configuration.maxWaitMillis);
+            if (waitMillis > 0) {
+                snapshot = tracker.awaitChange(snapshot.getVersion(), waitMillis, TimeUnit.MILLISECONDS);
+            }
+            if (etag(snapshot).equals(ifNoneMatch)) {
+                exchange.getResponseHeaders().set("ETag", etag(snapshot));
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+        }
+        final byte[] json = snapshot.toJson(objectMapper);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.getResponseHeaders().set("ETag", etag(snapshot));
+        exchange.sendResponseHeaders(200, json.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(json);
+        }
+    }
+
+    @NotNull
+    private String etag(@NotNull final DeviceStateSnapshot snapshot) {
+        return "\"" + epoch + "-" + snapshot.getVersion() + "\"";
+    }
+
+    /**
+     * Version of the last event a reconnecting client saw, or -1 if it saw none of this run.
+     */
+    private long lastEventVersion(@Nullable final String lastEventId) {
+        final String prefix = epoch + "-";
+        return lastEventId != null && lastEventId.startsWith(prefix)
+                ? parseLong(lastEventId.substring(prefix.length()), -1)
+                : -1;
+    }
+
+    private static long queryLong(@NotNull final HttpExchange exchange, @NotNull final String name,
+                                  final long defaultValue) {
+        final String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith(name + "=")) {
+                    return parseLong(parameter.substring(name.length() + 1), defaultValue);
+                }
+            }
+        }
+        return defaultValue;
+    }
+
+    private static long parseLong(@Nullable final String value, final long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
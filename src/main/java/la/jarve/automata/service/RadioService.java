@@ -4,21 +4,26 @@ import com.google.common.util.concurrent.AbstractExecutionThreadService;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 import eu.aleon.aleoncean.packet.ESP3Packet;
 import eu.aleon.aleoncean.packet.RadioPacket;
 import eu.aleon.aleoncean.rxtx.ESP3Connector;
+import la.jarve.automata.core.ReceivedPacket;
+import la.jarve.automata.metrics.Histogram;
+import la.jarve.automata.util.Threads;
+import la.jarve.enocean.rxtx.TimestampedESP3Connector;
 import rx.Observable;
-import rx.schedulers.Schedulers;
 import rx.subjects.PublishSubject;
 
 public class RadioService extends AbstractExecutionThreadService {
     private final ESP3Connector connector;
     private final String device;
-    private final PublishSubject<RadioPacket> packetPublishSubject = PublishSubject.create();
-    public final Observable<RadioPacket> radioPacketObservable =
-            packetPublishSubject.asObservable().observeOn(Schedulers.computation());
+    private final PublishSubject<ReceivedPacket> packetPublishSubject = PublishSubject.create();
+    // Subscribers run on the RadioService thread, DeviceService only routes the packets
+    public final Observable<ReceivedPacket> radioPacketObservable = packetPublishSubject.asObservable();
+    private final Histogram decodeLatencyMicros = new Histogram();
 
     public RadioService(@NotNull final ESP3Connector connector, @NotNull final String device) {
         this.connector = connector;
@@ -38,12 +43,22 @@ public class RadioService extends AbstractExecutionThreadService {
         super.shutDown();
     }
 
+    @Override
+    protected Executor executor() {
+        return Threads.isVirtual() ? Threads.serviceExecutor(serviceName()) : super.executor();
+    }
+
     @Override
     protected void run() throws Exception {
         while (isRunning()) {
             final ESP3Packet packet = connector.read(15, TimeUnit.SECONDS);
             if (packet instanceof RadioPacket) {
-                packetPublishSubject.onNext((RadioPacket) packet);
+                final long now = System.nanoTime();
+                final long receivedNanos = connector instanceof TimestampedESP3Connector
+                        ? ((TimestampedESP3Connector) connector).getLastReadNanos()
+                        : now;
+                decodeLatencyMicros.record(TimeUnit.NANOSECONDS.toMicros(now - receivedNanos));
+                packetPublishSubject.onNext(new ReceivedPacket((RadioPacket) packet, receivedNanos, now));
             }
         }
     }
@@ -51,4 +66,12 @@ public class RadioService extends AbstractExecutionThreadService {
     public ESP3Connector getConnector() {
         return connector;
     }
+
+    /**
+     * Time from a frame being received to its packet being published.
+     */
+    @NotNull
+    public Histogram getDecodeLatencyMicros() {
+        return decodeLatencyMicros;
+    }
 }
@@ -1,87 +1,275 @@
 package la.jarve.automata.service;
 
-import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
 
 import org.jetbrains.annotations.NotNull;
-import org.kie.api.KieBase;
-import org.kie.api.KieBaseConfiguration;
-import org.kie.api.KieServices;
-import org.kie.api.builder.KieBuilder;
-import org.kie.api.builder.KieFileSystem;
-import org.kie.api.builder.Message;
-import org.kie.api.conf.EventProcessingOption;
-import org.kie.api.runtime.KieContainer;
-import org.kie.api.runtime.KieSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileInputStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import eu.aleon.aleoncean.device.Device;
 import eu.aleon.aleoncean.device.DeviceParameterUpdatedEvent;
 import eu.aleon.aleoncean.packet.EnOceanId;
+import la.jarve.automata.CommandConfiguration;
+import la.jarve.automata.RulesConfiguration;
+import la.jarve.automata.cluster.RemoteDeviceSource;
 import la.jarve.automata.core.Parameter;
+import la.jarve.automata.core.PipelineTrace;
+import la.jarve.automata.metrics.Histogram;
+import la.jarve.automata.rules.DroolsRulesEngine;
+import la.jarve.automata.rules.NativeRulesEngine;
+import la.jarve.automata.rules.ParameterQueue;
+import la.jarve.automata.rules.RulesEngine;
+import la.jarve.automata.rules.RulesEngineFactory;
+import la.jarve.automata.rules.RulesEngineType;
+import la.jarve.automata.util.FileWatcher;
+import la.jarve.automata.util.Threads;
 import rx.Subscription;
-import rx.schedulers.Schedulers;
 
-public class RulesService extends AbstractIdleService {
+/**
+ * Runs the rules on a single thread which owns the RulesEngine. Parameters reach it through
+ * a bounded ParameterQueue, filled on the thread publishing them, so a slow rules engine
+ * pushes back on DeviceService according to the configured overflow policy instead of
+ * buffering without limit.
+ */
+public class RulesService extends AbstractExecutionThreadService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RulesService.class);
+    private static final long POLL_TIMEOUT_MILLIS = 500;
 
     @NotNull
     private final String rulesFile;
     @NotNull
     private final DeviceService deviceService;
+    @NotNull
+    private final RulesEngineFactory engineFactory;
+    @NotNull
+    private final FileWatcher rulesWatcher;
+    @NotNull
+    private final RulesConfiguration configuration;
+    @NotNull
+    private final ParameterQueue parameterQueue;
+    private final AtomicReference<RulesEngine> pendingEngine = new AtomicReference<>();
+    private final Histogram batchSizes = new Histogram();
+    private final Histogram fireLatencyMicros = new Histogram();
+    private final Histogram busHopLatencyMicros = new Histogram();
+    private final AtomicLong retractedFacts = new AtomicLong();
+    private volatile long factCount;
+    private volatile long rulesLoadMillis = -1;
     private Subscription subscription;
-    private KieSession kSession;
+    private RulesEngine engine;
 
     public RulesService(@NotNull DeviceService deviceService,
-                        @NotNull final String rulesFile) {
+                        @NotNull final String rulesFile,
+                        @NotNull final RulesConfiguration configuration) {
         this.deviceService = deviceService;
         this.rulesFile = rulesFile;
+        this.configuration = configuration;
+        // Drools is only loaded when the Drools engine is used
+        this.engineFactory = configuration.engine == RulesEngineType.NATIVE
+                ? NativeRulesEngine.factory(Paths.get(rulesFile), deviceService::idOrNameToId,
+                        deviceService::setDeviceParameter)
+                : DroolsRulesEngine.factory(Paths.get(rulesFile), this::globals);
+        this.rulesWatcher = new FileWatcher(Paths.get(rulesFile), this::reload);
+        this.parameterQueue = new ParameterQueue(configuration.queueCapacity, configuration.overflowPolicy);
     }
 
-    @Override
-    protected void startUp() throws Exception {
-        KieServices ks = KieServices.Factory.get();
-        KieFileSystem kFileSystem = ks.newKieFileSystem();
-        try (FileInputStream fis = new FileInputStream(rulesFile)) {
-            kFileSystem.write("src/main/resources/automata.drl",
-                    ks.getResources().newInputStreamResource(fis));
-        }
+    public long getRulesLoadMillis() {
+        return rulesLoadMillis;
+    }
 
-        KieBuilder kBuilder = ks.newKieBuilder(kFileSystem);
-        kBuilder.buildAll();
-        if (kBuilder.getResults().hasMessages(Message.Level.ERROR)) {
-            throw new RuntimeException("Build time Errors: " + kBuilder.getResults());
-        }
-        KieContainer kContainer = ks.newKieContainer(ks.getRepository().getDefaultReleaseId());
+    @NotNull
+    public Histogram getBatchSizes() {
+        return batchSizes;
+    }
 
-        KieBaseConfiguration config = ks.newKieBaseConfiguration();
-        config.setOption(EventProcessingOption.STREAM);
+    @NotNull
+    public Histogram getFireLatencyMicros() {
+        return fireLatencyMicros;
+    }
 
-        KieBase kieBase = kContainer.newKieBase(config);
-        kSession = kieBase.newKieSession();
+    /**
+     * Time from DeviceService publishing a parameter update to the rules thread inserting it.
+     */
+    @NotNull
+    public Histogram getBusHopLatencyMicros() {
+        return busHopLatencyMicros;
+    }
 
-//        kSession.addEventListener(new DebugAgendaEventListener());
-//        kSession.addEventListener(new DebugRuleRuntimeEventListener());
-        kSession.fireAllRules();
-        LOGGER.info("Rules engine running");
+    public int getQueueSize() {
+        return parameterQueue.size();
+    }
+
+    public long getDroppedEvents() {
+        return parameterQueue.getDropped();
+    }
+
+    public long getCoalescedEvents() {
+        return parameterQueue.getCoalesced();
+    }
+
+    public long getFactCount() {
+        return factCount;
+    }
 
+    public long getRetractedFacts() {
+        return retractedFacts.get();
+    }
+
+    @Override
+    protected void startUp() throws Exception {
+        // The commands of the rules are resolved against the running devices
         deviceService.awaitRunning(5, TimeUnit.MINUTES);
-        kSession.setGlobal("deviceService", deviceService);
+        engine = load();
+        engine.fire();
+        LOGGER.info("Rules engine running");
+
+        // The ParameterQueue is the only hop to the rules thread, so a BLOCK overflow policy
+        // holds up the publishing thread until the rules catch up
         subscription = deviceService.parameterObservable
-                .observeOn(Schedulers.computation())
                 .retry()
-                .map(event -> {
-                    final String name = deviceService.nameForId(remoteOfEvent(event));
-                    return new Parameter(event, name);
-                })
                 .subscribe(event -> {
-                    kSession.insert(event);
-                    kSession.fireAllRules();
+                    final String name = deviceService.nameForId(remoteOfEvent(event));
+                    try {
+                        parameterQueue.put(Parameter.of(event, name));
+                    } catch (InterruptedException ignored) {
+                        LOGGER.debug("Interrupted while queueing {}", event);
+                        Thread.currentThread().interrupt();
+                    }
                 });
+        rulesWatcher.start();
+    }
+
+    @Override
+    protected Executor executor() {
+        return Threads.isVirtual() ? Threads.serviceExecutor(serviceName()) : super.executor();
+    }
+
+    @Override
+    protected void run() throws Exception {
+        final List<Parameter> batch = new ArrayList<>(configuration.batchSize);
+        while (isRunning()) {
+            swapPendingEngine();
+            final long untilTimer = engine.getNextTimerMillis() - System.currentTimeMillis();
+            parameterQueue.drainTo(batch, configuration.batchSize,
+                    Math.max(0, Math.min(POLL_TIMEOUT_MILLIS, untilTimer)),
+                    configuration.batchLingerMillis, TimeUnit.MILLISECONDS);
+            if (!batch.isEmpty()) {
+                insertAndFire(batch);
+                batch.clear();
+            } else if (engine.getNextTimerMillis() <= System.currentTimeMillis()) {
+                fire();
+            }
+            retractOldFacts();
+        }
+    }
+
+    private void insertAndFire(@NotNull final List<Parameter> batch) {
+        batchSizes.record(batch.size());
+        final long dequeued = System.nanoTime();
+        long origin = dequeued;
+        for (Parameter parameter : batch) {
+            busHopLatencyMicros.record(TimeUnit.NANOSECONDS.toMicros(dequeued - parameter.getPublishedNanos()));
+            origin = Math.min(origin, parameter.getOriginNanos());
+            engine.insert(parameter);
+        }
+        // Commands from the consequences are attributed to the oldest frame of the batch
+        PipelineTrace.setOrigin(origin);
+        try {
+            fire();
+        } finally {
+            PipelineTrace.clearOrigin();
+        }
+    }
+
+    private void fire() {
+        final long start = System.nanoTime();
+        engine.fire();
+        fireLatencyMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+    }
+
+    /**
+     * Retracts the Parameter facts older than maxFactAgeMillis and the oldest ones above
+     * maxFactCount.
+     */
+    private void retractOldFacts() {
+        retractedFacts.addAndGet(engine.retract(System.currentTimeMillis() - configuration.maxFactAgeMillis,
+                configuration.maxFactCount));
+        factCount = engine.getFactCount();
+    }
+
+    /**
+     * Globals of the Drools rules: the deviceService, and a DeviceCommand for each of the
+     * configured commands.
+     */
+    @NotNull
+    private Map<String, Object> globals() {
+        final ImmutableMap.Builder<String, Object> globals = ImmutableMap.builder();
+        globals.put("deviceService", deviceService);
+        for (Map.Entry<String, CommandConfiguration> entry : configuration.commands.entrySet()) {
+            globals.put(entry.getKey(), deviceService.command(entry.getValue().device, entry.getValue().parameter));
+        }
+        return globals.build();
+    }
+
+    @NotNull
+    private RulesEngine load() throws Exception {
+        final Stopwatch stopwatch = Stopwatch.createStarted();
+        final RulesEngine loaded = engineFactory.create();
+        rulesLoadMillis = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+        return loaded;
+    }
+
+    /**
+     * Loads the changed rules file on the watcher thread and hands the new engine over to
+     * the rules thread. Events keep flowing into the old engine until the swap.
+     */
+    private void reload() {
+        final RulesEngine newEngine;
+        try {
+            newEngine = load();
+        } catch (Exception e) {
+            LOGGER.error("Cannot reload rules " + rulesFile + ", keeping the old rules", e);
+            return;
+        }
+        final RulesEngine previous = pendingEngine.getAndSet(newEngine);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Swaps in a reloaded engine, carrying over the Parameter events the old engine still
+     * holds within maxFactAgeMillis. Drools expired the ones outside the windows of the rules
+     * already, and the carried over ones keep their timestamps and do not fire rules again.
+     */
+    private void swapPendingEngine() {
+        final RulesEngine newEngine = pendingEngine.getAndSet(null);
+        if (newEngine == null) {
+            return;
+        }
+        final long oldestMillis = System.currentTimeMillis() - configuration.maxFactAgeMillis;
+        final List<Parameter> carried = new ArrayList<>();
+        for (Parameter parameter : engine.getParameters()) {
+            if (parameter.getTimestamp() >= oldestMillis) {
+                carried.add(parameter);
+            }
+        }
+        newEngine.carryOver(carried);
+        engine.close();
+        engine = newEngine;
+        engine.fire();
+        LOGGER.info("Rules reloaded, carried over {} events", carried.size());
     }
 
     private static EnOceanId remoteOfEvent(final DeviceParameterUpdatedEvent event) {
@@ -89,6 +277,8 @@ public class RulesService extends AbstractIdleService {
         if (source instanceof Device) {
             Device device = (Device) source;
             return device.getAddressRemote();
+        } else if (source instanceof RemoteDeviceSource) {
+            return ((RemoteDeviceSource) source).getAddressRemote();
         } else {
             return null;
         }
@@ -96,9 +286,14 @@ public class RulesService extends AbstractIdleService {
 
     @Override
     protected void shutDown() throws Exception {
-        if (!subscription.isUnsubscribed()) {
+        rulesWatcher.close();
+        if (subscription != null && !subscription.isUnsubscribed()) {
             subscription.unsubscribe();
         }
-        kSession.destroy();
+        final RulesEngine pending = pendingEngine.getAndSet(null);
+        if (pending != null) {
+            pending.close();
+        }
+        engine.close();
     }
 }
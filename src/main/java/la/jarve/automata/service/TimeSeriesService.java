@@ -0,0 +1,121 @@
+package la.jarve.automata.service;
+
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.AbstractScheduledService;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import eu.aleon.aleoncean.device.Device;
+import eu.aleon.aleoncean.device.DeviceParameter;
+import la.jarve.automata.TimeSeriesConfiguration;
+import la.jarve.automata.core.DeviceRoutingTable;
+import la.jarve.automata.core.TimedParameterUpdatedEvent;
+import la.jarve.automata.timeseries.Rollup;
+import la.jarve.automata.timeseries.RollupFile;
+import la.jarve.automata.timeseries.TimeSeriesStore;
+import la.jarve.automata.util.QueuedAction;
+
+/**
+ * Records numeric parameter updates into a TimeSeriesStore and periodically appends the
+ * completed rollups to a RollupFile. Only rollups are written, and only once per flush
+ * interval, to keep the writes to the SD card down.
+ */
+public class TimeSeriesService extends AbstractScheduledService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimeSeriesService.class);
+
+    @NotNull
+    private final DeviceService deviceService;
+    @NotNull
+    private final TimeSeriesConfiguration configuration;
+    @NotNull
+    private final Set<DeviceParameter> parameters;
+    @NotNull
+    private final TimeSeriesStore store;
+    private final List<Rollup> pending = new ArrayList<>();
+    private QueuedAction<TimedParameterUpdatedEvent> subscription;
+    private RollupFile rollupFile;
+
+    public TimeSeriesService(@NotNull final DeviceService deviceService,
+                             @NotNull final TimeSeriesConfiguration configuration) {
+        this.deviceService = deviceService;
+        this.configuration = configuration;
+        this.parameters = Sets.newEnumSet(configuration.parameters, DeviceParameter.class);
+        this.store = new TimeSeriesStore(configuration.rawSamples);
+    }
+
+    @NotNull
+    public TimeSeriesStore getStore() {
+        return store;
+    }
+
+    public long getWrittenRollups() {
+        final RollupFile file = rollupFile;
+        return file != null ? file.getWrittenRecords() : 0;
+    }
+
+    @Override
+    protected void startUp() throws Exception {
+        rollupFile = new RollupFile(Paths.get(configuration.file), configuration.segmentBytes);
+        deviceService.awaitRunning(5, TimeUnit.MINUTES);
+        subscription = deviceService.subscribeParameters("time-series", this::record);
+    }
+
+    @Override
+    protected void runOneIteration() throws Exception {
+        store.closeBuckets(System.currentTimeMillis());
+        flush();
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+        if (subscription != null) {
+            subscription.close();
+        }
+        // Buckets in progress are written as well, a restart within them splits them in two
+        store.closeAllBuckets();
+        flush();
+        rollupFile.close();
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(configuration.flushIntervalMillis,
+                configuration.flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void record(@NotNull final TimedParameterUpdatedEvent event) {
+        if (!parameters.contains(event.getParameter())
+                || !(event.getNewValue() instanceof Number)
+                || !(event.getSource() instanceof Device)) {
+            return;
+        }
+        final int device = DeviceRoutingTable.toInt(((Device) event.getSource()).getAddressRemote());
+        store.record(device, event.getParameter(), System.currentTimeMillis(),
+                ((Number) event.getNewValue()).doubleValue());
+    }
+
+    private void flush() {
+        store.drainCompleted(pending);
+        if (pending.isEmpty()) {
+            return;
+        }
+        try {
+            rollupFile.append(pending);
+            LOGGER.debug("Wrote {} rollups", pending.size());
+            pending.clear();
+        } catch (IOException e) {
+            // Kept for the next flush
+            LOGGER.warn("Cannot write rollups to " + configuration.file, e);
+        }
+    }
+}
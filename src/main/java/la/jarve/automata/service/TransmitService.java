@@ -0,0 +1,366 @@
+package la.jarve.automata.service;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import eu.aleon.aleoncean.device.Device;
+import eu.aleon.aleoncean.device.DeviceParameter;
+import eu.aleon.aleoncean.device.IllegalDeviceParameterException;
+import eu.aleon.aleoncean.packet.ESP3Packet;
+import eu.aleon.aleoncean.packet.EnOceanId;
+import eu.aleon.aleoncean.rxtx.ESP3Connector;
+import la.jarve.automata.TransmitConfiguration;
+import la.jarve.automata.metrics.Histogram;
+import la.jarve.automata.util.Threads;
+
+/**
+ * Schedules device commands for the radio. A queued command is replaced by a newer one for
+ * the same device and parameter, rule-triggered commands go before bulk ones, and the
+ * commands are paced to stay within the configured airtime budget.
+ *
+ * Raw packets which cluster peers write through this node share the budget. They go after the
+ * rule-triggered commands and before the bulk ones, in a bounded queue of their own, as a raw
+ * packet has no device and parameter to be merged by.
+ */
+public class TransmitService extends AbstractExecutionThreadService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransmitService.class);
+    private static final long POLL_TIMEOUT_MILLIS = 500;
+    private static final int REMOTE_QUEUE_CAPACITY = 256;
+
+    public enum Priority {
+        RULE, BULK
+    }
+
+    @NotNull
+    private final TransmitConfiguration configuration;
+    private final LinkedHashMap<CommandKey, Command> ruleCommands = new LinkedHashMap<>();
+    private final LinkedHashMap<CommandKey, Command> bulkCommands = new LinkedHashMap<>();
+    private final ArrayDeque<Command> remoteWrites = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final AtomicLong mergedCommands = new AtomicLong();
+    private final AtomicLong failedCommands = new AtomicLong();
+    private final AtomicLong droppedRemoteWrites = new AtomicLong();
+    private final Histogram timeInQueueMicros = new Histogram();
+    private final Histogram transmitLatencyMicros = new Histogram();
+    private final Histogram endToEndLatencyMicros = new Histogram();
+    private final double airtimeCapacityMillis;
+    private double airtimeAvailableMillis;
+    private long airtimeRefilledNanos;
+
+    public TransmitService(@NotNull final TransmitConfiguration configuration) {
+        this.configuration = configuration;
+        this.airtimeCapacityMillis = configuration.dutyCycleWindowMillis * configuration.dutyCyclePercent / 100.0;
+        this.airtimeAvailableMillis = airtimeCapacityMillis;
+        this.airtimeRefilledNanos = System.nanoTime();
+    }
+
+    /**
+     * Queues setting the parameter on the devices sharing a remote id. Every device
+     * supporting the parameter is set when the command is transmitted.
+     *
+     * @param originNanos System.nanoTime() of the radio frame which caused the command, or 0
+     * @throws IllegalDeviceParameterException if none of the devices has the parameter
+     */
+    public void submit(@NotNull final EnOceanId enOceanId, @NotNull final Collection<Device> devices,
+                       @NotNull final DeviceParameter parameter, @Nullable final Object value,
+                       @NotNull final Priority priority, final long originNanos)
+            throws IllegalDeviceParameterException {
+        final ImmutableList<Device> supporting = supporting(devices, parameter);
+        if (supporting.isEmpty()) {
+            throw new IllegalDeviceParameterException(
+                    String.format("Unknown device parameter %s for %s", parameter, enOceanId));
+        }
+        submit(new CommandKey(enOceanId, parameter), supporting, value, priority, originNanos);
+    }
+
+    /**
+     * The devices which have the parameter.
+     */
+    @NotNull
+    static ImmutableList<Device> supporting(@NotNull final Collection<Device> devices,
+                                            @NotNull final DeviceParameter parameter) {
+        final ImmutableList.Builder<Device> supporting = ImmutableList.builder();
+        for (Device device : devices) {
+            if (device.getParameters().contains(parameter)) {
+                supporting.add(device);
+            }
+        }
+        return supporting.build();
+    }
+
+    /**
+     * Queues a command of a DeviceCommand, which has its key and devices prepared.
+     */
+    void submit(@NotNull final CommandKey key, @NotNull final ImmutableList<Device> devices,
+                @Nullable final Object value, @NotNull final Priority priority, final long originNanos) {
+        lock.lock();
+        try {
+            Command command = ruleCommands.get(key);
+            if (command == null) {
+                command = bulkCommands.get(key);
+                if (command != null && priority == Priority.RULE) {
+                    bulkCommands.remove(key);
+                    ruleCommands.put(key, command);
+                }
+            }
+            if (command != null) {
+                command.value = value;
+                command.originNanos = originNanos;
+                mergedCommands.incrementAndGet();
+                return;
+            }
+            command = new Command(key, devices, value, originNanos);
+            (priority == Priority.RULE ? ruleCommands : bulkCommands).put(key, command);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a raw packet a cluster peer asks this node to transmit through the connector,
+     * dropping it when too many are queued already.
+     *
+     * @return false if the packet was dropped
+     */
+    public boolean submitRemote(@NotNull final String nodeId, @NotNull final ESP3Connector connector,
+                                @NotNull final ESP3Packet packet) {
+        lock.lock();
+        try {
+            if (remoteWrites.size() >= REMOTE_QUEUE_CAPACITY) {
+                droppedRemoteWrites.incrementAndGet();
+                return false;
+            }
+            remoteWrites.add(new Command(nodeId, connector, packet));
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return ruleCommands.size() + remoteWrites.size() + bulkCommands.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMergedCommands() {
+        return mergedCommands.get();
+    }
+
+    public long getFailedCommands() {
+        return failedCommands.get();
+    }
+
+    public long getDroppedRemoteWrites() {
+        return droppedRemoteWrites.get();
+    }
+
+    @NotNull
+    public Histogram getTimeInQueueMicros() {
+        return timeInQueueMicros;
+    }
+
+    /**
+     * Time from a command being queued to it having been written to the radio.
+     */
+    @NotNull
+    public Histogram getTransmitLatencyMicros() {
+        return transmitLatencyMicros;
+    }
+
+    /**
+     * Time from the radio frame which caused a command to it having been written to the radio.
+     */
+    @NotNull
+    public Histogram getEndToEndLatencyMicros() {
+        return endToEndLatencyMicros;
+    }
+
+    @Override
+    protected Executor executor() {
+        return Threads.isVirtual() ? Threads.serviceExecutor(serviceName()) : super.executor();
+    }
+
+    @Override
+    protected void run() throws Exception {
+        while (isRunning()) {
+            // Wait for airtime before taking a command, so it can still be merged meanwhile
+            if (!awaitAirtime()) {
+                continue;
+            }
+            final Command command = take();
+            if (command != null) {
+                timeInQueueMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - command.queuedNanos));
+                airtimeAvailableMillis -= configuration.airtimeMillisPerCommand;
+                transmit(command);
+                final long now = System.nanoTime();
+                transmitLatencyMicros.record(TimeUnit.NANOSECONDS.toMicros(now - command.queuedNanos));
+                if (command.originNanos != 0) {
+                    endToEndLatencyMicros.record(TimeUnit.NANOSECONDS.toMicros(now - command.originNanos));
+                }
+            }
+        }
+    }
+
+    private boolean awaitAirtime() throws InterruptedException {
+        final long now = System.nanoTime();
+        final double refill = TimeUnit.NANOSECONDS.toMicros(now - airtimeRefilledNanos) / 1000.0
+                * configuration.dutyCyclePercent / 100.0;
+        airtimeAvailableMillis = Math.min(airtimeCapacityMillis, airtimeAvailableMillis + refill);
+        airtimeRefilledNanos = now;
+
+        final double missing = configuration.airtimeMillisPerCommand - airtimeAvailableMillis;
+        if (missing <= 0) {
+            return true;
+        }
+        final long waitMillis = configuration.dutyCyclePercent > 0
+                ? (long) Math.ceil(missing * 100.0 / configuration.dutyCyclePercent)
+                : POLL_TIMEOUT_MILLIS;
+        LOGGER.debug("Airtime budget used up, waiting {} ms", waitMillis);
+        TimeUnit.MILLISECONDS.sleep(Math.min(waitMillis, POLL_TIMEOUT_MILLIS));
+        return false;
+    }
+
+    @Nullable
+    private Command take() throws InterruptedException {
+        lock.lock();
+        try {
+            if (ruleCommands.isEmpty() && remoteWrites.isEmpty() && bulkCommands.isEmpty()) {
+                notEmpty.await(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            if (ruleCommands.isEmpty() && !remoteWrites.isEmpty()) {
+                return remoteWrites.poll();
+            }
+            final LinkedHashMap<CommandKey, Command> commands = !ruleCommands.isEmpty() ? ruleCommands : bulkCommands;
+            final Iterator<Command> iterator = commands.values().iterator();
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            final Command command = iterator.next();
+            iterator.remove();
+            return command;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the parameter on every device of the command, as they all share the remote id.
+     */
+    private void transmit(@NotNull final Command command) {
+        if (command.packet != null) {
+            transmitRemote(command);
+            return;
+        }
+        boolean accepted = false;
+        boolean failed = false;
+        for (Device device : command.devices) {
+            try {
+                device.setByParameter(command.key.parameter, command.value);
+                accepted = true;
+            } catch (IllegalDeviceParameterException ignored) {
+            } catch (RuntimeException e) {
+                failed = true;
+                LOGGER.error("Setting " + command.key.parameter + " of " + command.key.enOceanId + " failed", e);
+            }
+        }
+        if (failed) {
+            failedCommands.incrementAndGet();
+        } else if (!accepted) {
+            failedCommands.incrementAndGet();
+            LOGGER.error("Unknown device parameter {} for {}", command.key.parameter, command.key.enOceanId);
+        }
+    }
+
+    private void transmitRemote(@NotNull final Command command) {
+        try {
+            if (command.connector.write(command.packet) == null) {
+                failedCommands.incrementAndGet();
+                LOGGER.warn("No response to packet written by {}", command.nodeId);
+            }
+        } catch (RuntimeException e) {
+            failedCommands.incrementAndGet();
+            LOGGER.error("Writing packet of " + command.nodeId + " failed", e);
+        }
+    }
+
+    /**
+     * A device command, or a raw packet written by a cluster peer when packet is set.
+     */
+    private static final class Command {
+        private final CommandKey key;
+        private final Collection<Device> devices;
+        private final String nodeId;
+        private final ESP3Connector connector;
+        private final ESP3Packet packet;
+        private final long queuedNanos = System.nanoTime();
+        private Object value;
+        private long originNanos;
+
+        private Command(final CommandKey key, final Collection<Device> devices, final Object value,
+                        final long originNanos) {
+            this.key = key;
+            this.devices = devices;
+            this.nodeId = null;
+            this.connector = null;
+            this.packet = null;
+            this.value = value;
+            this.originNanos = originNanos;
+        }
+
+        private Command(final String nodeId, final ESP3Connector connector, final ESP3Packet packet) {
+            this.key = null;
+            this.devices = null;
+            this.nodeId = nodeId;
+            this.connector = connector;
+            this.packet = packet;
+        }
+    }
+
+    static final class CommandKey {
+        private final EnOceanId enOceanId;
+        private final DeviceParameter parameter;
+
+        CommandKey(final EnOceanId enOceanId, final DeviceParameter parameter) {
+            this.enOceanId = enOceanId;
+            this.parameter = parameter;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof CommandKey)) {
+                return false;
+            }
+            final CommandKey other = (CommandKey) o;
+            return enOceanId.equals(other.enOceanId) && parameter == other.parameter;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * enOceanId.hashCode() + Objects.hashCode(parameter);
+        }
+    }
+}
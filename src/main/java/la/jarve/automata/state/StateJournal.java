@@ -0,0 +1,277 @@
+package la.jarve.automata.state;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import eu.aleon.aleoncean.device.DeviceParameter;
+import la.jarve.automata.util.ValueCodec;
+
+/**
+ * Last-known parameter values of the devices, persisted with a write-behind journal.
+ *
+ * Values are kept in memory and the changes are coalesced per device parameter until the
+ * next flush, which appends them to the journal and syncs it once. Each record carries a
+ * CRC, so a record torn by a crash ends the journal when it is read back. The journal is
+ * compacted to one record per device parameter when it is opened and whenever it has grown
+ * well past that.
+ */
+public class StateJournal implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StateJournal.class);
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+    private static final int COMPACTION_FACTOR = 8;
+
+    @NotNull
+    private final Path file;
+    private final long flushIntervalMillis;
+    private final Map<Key, Object> values = new ConcurrentHashMap<>();
+    private final Map<Key, Object> pending = new LinkedHashMap<>();
+    private final CRC32 crc = new CRC32();
+    private ScheduledExecutorService writer;
+    private FileChannel channel;
+    private long records;
+
+    public StateJournal(@NotNull final Path file, final long flushIntervalMillis) {
+        Preconditions.checkArgument(flushIntervalMillis > 0, "flushIntervalMillis must be positive");
+        this.file = file;
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    /**
+     * Reads the journal, compacts it and starts the background writer.
+     */
+    public void open() throws IOException {
+        Preconditions.checkState(writer == null);
+        if (Files.exists(file)) {
+            read();
+        }
+        compact();
+        writer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("state-journal").setDaemon(true).build());
+        writer.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        LOGGER.info("Restored {} parameter values from {}", values.size(), file);
+    }
+
+    /**
+     * @param device remote id of the device, as in DeviceRoutingTable.toInt
+     */
+    @Nullable
+    public Object get(final int device, @NotNull final DeviceParameter parameter) {
+        return values.get(new Key(device, parameter));
+    }
+
+    /**
+     * Updates the last-known value, to be written with the next flush. Null values and
+     * values of unsupported types are ignored.
+     */
+    public void put(final int device, @NotNull final DeviceParameter parameter, @Nullable final Object value) {
+        if (!ValueCodec.isSupported(value)) {
+            return;
+        }
+        final Key key = new Key(device, parameter);
+        if (Objects.equals(values.put(key, value), value)) {
+            return;
+        }
+        synchronized (pending) {
+            pending.put(key, value);
+        }
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.shutdown();
+            try {
+                writer.awaitTermination(flushIntervalMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writer = null;
+        }
+        if (channel != null) {
+            flush();
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            LOGGER.warn("Cannot write state journal " + file, e);
+        }
+    }
+
+    private synchronized void flush() throws IOException {
+        final Map<Key, Object> batch;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new LinkedHashMap<>(pending);
+            pending.clear();
+        }
+        try {
+            write(channel, batch);
+            channel.force(false);
+        } catch (IOException e) {
+            // Keep the batch for the next flush, unless newer values arrived meanwhile
+            synchronized (pending) {
+                for (Map.Entry<Key, Object> entry : batch.entrySet()) {
+                    pending.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            }
+            throw e;
+        }
+        records += batch.size();
+        if (records > Math.max(MIN_COMPACTION_RECORDS, COMPACTION_FACTOR * values.size())) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the journal with the current values only, replacing the old one atomically.
+     */
+    private synchronized void compact() throws IOException {
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel compacted = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(compacted, values);
+            compacted.force(true);
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        records = values.size();
+    }
+
+    private void read() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        while (buffer.remaining() >= 8) {
+            final int length = buffer.getInt(buffer.position());
+            if (length <= 0 || buffer.remaining() < 8 + length) {
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.array(), buffer.position() + 4, length);
+            if ((int) crc.getValue() != buffer.getInt(buffer.position() + 4 + length)) {
+                break;
+            }
+            buffer.getInt();
+            final ByteBuffer record = buffer.slice();
+            record.limit(length);
+            buffer.position(buffer.position() + length + 4);
+            readRecord(record);
+        }
+        if (buffer.hasRemaining()) {
+            LOGGER.warn("Ignoring {} bytes of torn records at the end of {}", buffer.remaining(), file);
+        }
+    }
+
+    private void readRecord(@NotNull final ByteBuffer record) {
+        final int device = record.getInt();
+        final String parameterName = ValueCodec.getString(record);
+        final DeviceParameter parameter;
+        try {
+            parameter = DeviceParameter.valueOf(parameterName);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Skipping state of unknown parameter {}", parameterName);
+            return;
+        }
+        final Object value = ValueCodec.getValue(record, parameter);
+        if (value != null) {
+            values.put(new Key(device, parameter), value);
+        }
+    }
+
+    private void write(@NotNull final FileChannel target, @NotNull final Map<Key, Object> entries)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (Map.Entry<Key, Object> entry : entries.entrySet()) {
+            final byte[] record = encode(entry.getKey(), entry.getValue());
+            if (buffer.remaining() < record.length + 8) {
+                buffer.flip();
+                writeFully(target, buffer);
+                buffer = ByteBuffer.allocate(Math.max(4096, record.length + 8));
+            }
+            crc.reset();
+            crc.update(record, 0, record.length);
+            buffer.putInt(record.length).put(record).putInt((int) crc.getValue());
+        }
+        buffer.flip();
+        writeFully(target, buffer);
+    }
+
+    private static void writeFully(@NotNull final FileChannel target, @NotNull final ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    @NotNull
+    private static byte[] encode(@NotNull final Key key, @NotNull final Object value) {
+        final ByteBuffer record = ByteBuffer.allocate(4 + 256 + ValueCodec.MAX_VALUE_BYTES);
+        record.putInt(key.device);
+        ValueCodec.putString(record, key.parameter.name());
+        ValueCodec.putValue(record, value);
+        final byte[] bytes = new byte[record.position()];
+        record.flip();
+        record.get(bytes);
+        return bytes;
+    }
+
+    private static final class Key {
+        private final int device;
+        private final DeviceParameter parameter;
+
+        private Key(final int device, final DeviceParameter parameter) {
+            this.device = device;
+            this.parameter = parameter;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return device == other.device && parameter == other.parameter;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * device + Objects.hashCode(parameter);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package la.jarve.automata.timeseries;
+
+import java.util.concurrent.TimeUnit;
+
+public enum Resolution {
+    MINUTE(TimeUnit.MINUTES.toMillis(1)),
+    HOUR(TimeUnit.HOURS.toMillis(1)),
+    DAY(TimeUnit.DAYS.toMillis(1));
+
+    private final long millis;
+
+    Resolution(final long millis) {
+        this.millis = millis;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    /**
+     * Start of the bucket the timestamp falls in. Days are UTC days.
+     */
+    public long bucketStart(final long timestampMillis) {
+        return timestampMillis - Math.floorMod(timestampMillis, millis);
+    }
+}
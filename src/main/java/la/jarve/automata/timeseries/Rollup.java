@@ -0,0 +1,94 @@
+package la.jarve.automata.timeseries;
+
+import org.jetbrains.annotations.NotNull;
+
+import eu.aleon.aleoncean.device.DeviceParameter;
+
+/**
+ * Aggregate of the samples of one device parameter within one bucket. When Automata was
+ * restarted within a bucket, the bucket is split over several rollups; merge them by
+ * adding up the counts and sums.
+ */
+public class Rollup {
+
+    private final int device;
+    @NotNull
+    private final DeviceParameter parameter;
+    @NotNull
+    private final Resolution resolution;
+    private final long startMillis;
+    private final int count;
+    private final double sum;
+    private final double min;
+    private final double max;
+    private final double last;
+
+    public Rollup(final int device, @NotNull final DeviceParameter parameter, @NotNull final Resolution resolution,
+                  final long startMillis, final int count, final double sum, final double min, final double max,
+                  final double last) {
+        this.device = device;
+        this.parameter = parameter;
+        this.resolution = resolution;
+        this.startMillis = startMillis;
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+        this.last = last;
+    }
+
+    /**
+     * Remote id of the device, as in DeviceRoutingTable.toInt.
+     */
+    public int getDevice() {
+        return device;
+    }
+
+    @NotNull
+    public DeviceParameter getParameter() {
+        return parameter;
+    }
+
+    @NotNull
+    public Resolution getResolution() {
+        return resolution;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public double getMean() {
+        return count > 0 ? sum / count : 0;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * Last sample of the bucket, which is what matters for counters such as ENERGY_WS.
+     */
+    public double getLast() {
+        return last;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Rollup{device=%08X, parameter=%s, resolution=%s, start=%d, count=%d, mean=%.2f, "
+                + "min=%.2f, max=%.2f, last=%.2f}", device, parameter, resolution, startMillis, count, getMean(),
+                min, max, last);
+    }
+}
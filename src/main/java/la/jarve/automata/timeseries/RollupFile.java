@@ -0,0 +1,168 @@
+package la.jarve.automata.timeseries;
+
+import com.google.common.base.Preconditions;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import eu.aleon.aleoncean.device.DeviceParameter;
+
+/**
+ * Append-only file of rollups. The file is memory mapped in segments and grows a segment at
+ * a time, so appending a batch only dirties the pages it touches and is written to the disk
+ * with a single force. The unused tail of the last segment is zero, which marks the end of
+ * the records. Not thread safe.
+ */
+public class RollupFile implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RollupFile.class);
+
+    private static final byte RECORD_MARKER = 0x52;
+    // marker, resolution, name length, device, start, count, sum, min, max, last
+    private static final int FIXED_RECORD_BYTES = 1 + 1 + 1 + 4 + 8 + 4 + 8 * 4;
+    private static final int MAX_RECORD_BYTES = FIXED_RECORD_BYTES + 255;
+
+    @NotNull
+    private final FileChannel channel;
+    private final int segmentBytes;
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    private long writtenRecords;
+
+    public RollupFile(@NotNull final Path path, final int segmentBytes) throws IOException {
+        Preconditions.checkArgument(segmentBytes >= MAX_RECORD_BYTES, "segmentBytes must be at least %s",
+                MAX_RECORD_BYTES);
+        this.segmentBytes = segmentBytes;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        final long end = scan(null);
+        mapSegment(end);
+    }
+
+    /**
+     * Number of rollups appended since the file was opened.
+     */
+    public long getWrittenRecords() {
+        return writtenRecords;
+    }
+
+    /**
+     * Appends the rollups and forces them to the disk.
+     */
+    public void append(@NotNull final Collection<Rollup> rollups) throws IOException {
+        if (rollups.isEmpty()) {
+            return;
+        }
+        for (Rollup rollup : rollups) {
+            final byte[] name = rollup.getParameter().name().getBytes(StandardCharsets.US_ASCII);
+            final int recordBytes = FIXED_RECORD_BYTES + name.length;
+            if (segment.remaining() < recordBytes) {
+                segment.force();
+                mapSegment(segmentStart + segment.position());
+            }
+            final int position = segment.position();
+            // The marker goes in last, so a record torn by a crash is not read back
+            segment.put(position + 1, (byte) rollup.getResolution().ordinal());
+            segment.put(position + 2, (byte) name.length);
+            segment.position(position + 3);
+            segment.put(name);
+            segment.putInt(rollup.getDevice());
+            segment.putLong(rollup.getStartMillis());
+            segment.putInt(rollup.getCount());
+            segment.putDouble(rollup.getSum());
+            segment.putDouble(rollup.getMin());
+            segment.putDouble(rollup.getMax());
+            segment.putDouble(rollup.getLast());
+            segment.put(position, RECORD_MARKER);
+            writtenRecords++;
+        }
+        segment.force();
+    }
+
+    /**
+     * Reads back every rollup in the file.
+     */
+    @NotNull
+    public List<Rollup> readAll() throws IOException {
+        final List<Rollup> rollups = new ArrayList<>();
+        scan(rollups);
+        return rollups;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (segment != null) {
+            segment.force();
+            segment = null;
+        }
+        channel.close();
+    }
+
+    private void mapSegment(final long position) throws IOException {
+        segmentStart = position;
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, position, segmentBytes);
+    }
+
+    /**
+     * Walks the records, optionally collecting them, and returns the offset just past the last one.
+     */
+    private long scan(@Nullable final List<Rollup> rollups) throws IOException {
+        final long size = channel.size();
+        if (size == 0) {
+            return 0;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Rollup file is larger than 2 GB");
+        }
+        final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        while (buffer.remaining() >= FIXED_RECORD_BYTES && buffer.get(buffer.position()) == RECORD_MARKER) {
+            final int nameLength = buffer.get(buffer.position() + 2) & 0xFF;
+            if (buffer.remaining() < FIXED_RECORD_BYTES + nameLength) {
+                break;
+            }
+            final Rollup rollup = readRecord(buffer, nameLength);
+            if (rollups != null && rollup != null) {
+                rollups.add(rollup);
+            }
+        }
+        return buffer.position();
+    }
+
+    @Nullable
+    private static Rollup readRecord(@NotNull final ByteBuffer buffer, final int nameLength) {
+        buffer.get();
+        final int resolution = buffer.get();
+        buffer.get();
+        final byte[] name = new byte[nameLength];
+        buffer.get(name);
+        final int device = buffer.getInt();
+        final long start = buffer.getLong();
+        final int count = buffer.getInt();
+        final double sum = buffer.getDouble();
+        final double min = buffer.getDouble();
+        final double max = buffer.getDouble();
+        final double last = buffer.getDouble();
+        final String parameterName = new String(name, StandardCharsets.US_ASCII);
+        try {
+            return new Rollup(device, DeviceParameter.valueOf(parameterName), Resolution.values()[resolution],
+                    start, count, sum, min, max, last);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            LOGGER.warn("Skipping rollup of unknown parameter {} or resolution {}", parameterName, resolution);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package la.jarve.automata.timeseries;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Fixed size ring of the most recent raw samples, kept in primitive arrays. Not thread safe.
+ */
+public class SampleRing {
+
+    private final long[] timestamps;
+    private final double[] values;
+    private int next;
+    private int size;
+
+    public SampleRing(final int capacity) {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        this.timestamps = new long[capacity];
+        this.values = new double[capacity];
+    }
+
+    public void add(final long timestampMillis, final double value) {
+        timestamps[next] = timestampMillis;
+        values[next] = value;
+        next = next + 1 == timestamps.length ? 0 : next + 1;
+        if (size < timestamps.length) {
+            size++;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return timestamps.length;
+    }
+
+    /**
+     * Copies the samples, oldest first, into the arrays.
+     *
+     * @return number of samples copied
+     */
+    public int copyTo(final long[] timestampsOut, final double[] valuesOut) {
+        final int count = Math.min(size, Math.min(timestampsOut.length, valuesOut.length));
+        int index = next - count;
+        if (index < 0) {
+            index += timestamps.length;
+        }
+        for (int i = 0; i < count; i++) {
+            timestampsOut[i] = timestamps[index];
+            valuesOut[i] = values[index];
+            index = index + 1 == timestamps.length ? 0 : index + 1;
+        }
+        return count;
+    }
+}
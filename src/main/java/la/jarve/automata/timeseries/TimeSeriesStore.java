@@ -0,0 +1,188 @@
+package la.jarve.automata.timeseries;
+
+import com.google.common.base.Preconditions;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import eu.aleon.aleoncean.device.DeviceParameter;
+
+/**
+ * In-memory time series of numeric device parameters. Keeps the most recent raw samples of
+ * each device parameter and rolls them up per minute, hour and day. Completed rollups are
+ * held until they are drained for writing.
+ */
+public class TimeSeriesStore {
+
+    private static final Resolution[] RESOLUTIONS = Resolution.values();
+
+    private final int rawSamples;
+    private final Map<SeriesKey, Series> series = new HashMap<>();
+    private final List<Rollup> completed = new ArrayList<>();
+
+    public TimeSeriesStore(final int rawSamples) {
+        Preconditions.checkArgument(rawSamples > 0, "rawSamples must be positive");
+        this.rawSamples = rawSamples;
+    }
+
+    public synchronized void record(final int device, @NotNull final DeviceParameter parameter,
+                                    final long timestampMillis, final double value) {
+        final SeriesKey key = new SeriesKey(device, parameter);
+        Series entry = series.get(key);
+        if (entry == null) {
+            entry = new Series(device, parameter, rawSamples);
+            series.put(key, entry);
+        }
+        entry.raw.add(timestampMillis, value);
+        for (Bucket bucket : entry.buckets) {
+            final long start = bucket.resolution.bucketStart(timestampMillis);
+            if (bucket.count > 0 && start != bucket.startMillis) {
+                completed.add(bucket.toRollup(entry));
+                bucket.count = 0;
+            }
+            bucket.add(start, value);
+        }
+    }
+
+    /**
+     * Completes the buckets which ended before the given time, even though no newer sample
+     * has arrived for them.
+     */
+    public synchronized void closeBuckets(final long nowMillis) {
+        for (Series entry : series.values()) {
+            for (Bucket bucket : entry.buckets) {
+                if (bucket.count > 0 && bucket.startMillis + bucket.resolution.getMillis() <= nowMillis) {
+                    completed.add(bucket.toRollup(entry));
+                    bucket.count = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Completes every bucket, including the ones still in progress.
+     */
+    public synchronized void closeAllBuckets() {
+        closeBuckets(Long.MAX_VALUE);
+    }
+
+    /**
+     * Moves the completed rollups into the collection.
+     *
+     * @return number of rollups moved
+     */
+    public synchronized int drainCompleted(@NotNull final Collection<Rollup> rollups) {
+        final int count = completed.size();
+        rollups.addAll(completed);
+        completed.clear();
+        return count;
+    }
+
+    /**
+     * Copies the recent raw samples of a device parameter, oldest first.
+     *
+     * @return number of samples copied
+     */
+    public synchronized int copyRawSamples(final int device, @NotNull final DeviceParameter parameter,
+                                           @NotNull final long[] timestamps, @NotNull final double[] values) {
+        final Series entry = series.get(new SeriesKey(device, parameter));
+        return entry != null ? entry.raw.copyTo(timestamps, values) : 0;
+    }
+
+    /**
+     * The bucket in progress for a device parameter, or null if it has no samples yet.
+     */
+    @Nullable
+    public synchronized Rollup getCurrent(final int device, @NotNull final DeviceParameter parameter,
+                                          @NotNull final Resolution resolution) {
+        final Series entry = series.get(new SeriesKey(device, parameter));
+        if (entry == null) {
+            return null;
+        }
+        final Bucket bucket = entry.buckets[resolution.ordinal()];
+        return bucket.count > 0 ? bucket.toRollup(entry) : null;
+    }
+
+    public int getRawSamples() {
+        return rawSamples;
+    }
+
+    private static final class Series {
+        private final int device;
+        private final DeviceParameter parameter;
+        private final SampleRing raw;
+        private final Bucket[] buckets = new Bucket[RESOLUTIONS.length];
+
+        private Series(final int device, final DeviceParameter parameter, final int rawSamples) {
+            this.device = device;
+            this.parameter = parameter;
+            this.raw = new SampleRing(rawSamples);
+            for (Resolution resolution : RESOLUTIONS) {
+                buckets[resolution.ordinal()] = new Bucket(resolution);
+            }
+        }
+    }
+
+    private static final class Bucket {
+        private final Resolution resolution;
+        private long startMillis;
+        private int count;
+        private double sum;
+        private double min;
+        private double max;
+        private double last;
+
+        private Bucket(final Resolution resolution) {
+            this.resolution = resolution;
+        }
+
+        private void add(final long start, final double value) {
+            if (count == 0) {
+                startMillis = start;
+                sum = 0;
+                min = value;
+                max = value;
+            }
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            last = value;
+        }
+
+        private Rollup toRollup(final Series series) {
+            return new Rollup(series.device, series.parameter, resolution, startMillis, count, sum, min, max, last);
+        }
+    }
+
+    private static final class SeriesKey {
+        private final int device;
+        private final DeviceParameter parameter;
+
+        private SeriesKey(final int device, final DeviceParameter parameter) {
+            this.device = device;
+            this.parameter = parameter;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof SeriesKey)) {
+                return false;
+            }
+            final SeriesKey other = (SeriesKey) o;
+            return device == other.device && parameter == other.parameter;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * device + Objects.hashCode(parameter);
+        }
+    }
+}
@@ -0,0 +1,5 @@
+package la.jarve.automata.util;
+
+public enum ExecutionMode {
+    PLATFORM, VIRTUAL
+}
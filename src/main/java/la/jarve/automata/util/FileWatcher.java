@@ -0,0 +1,93 @@
+package la.jarve.automata.util;
+
+import com.google.common.base.Preconditions;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a single file and runs a callback on a background thread when it changes.
+ *
+ * Editors tend to produce several events per save, so the callback runs only after the
+ * file has been quiet for the debounce period.
+ */
+public class FileWatcher implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileWatcher.class);
+    private static final long DEBOUNCE_MILLIS = 500;
+
+    @NotNull
+    private final Path file;
+    @NotNull
+    private final Runnable onChange;
+    private WatchService watchService;
+    private Thread thread;
+
+    public FileWatcher(@NotNull final Path file, @NotNull final Runnable onChange) {
+        this.file = file.toAbsolutePath();
+        this.onChange = onChange;
+    }
+
+    public void start() throws IOException {
+        Preconditions.checkState(watchService == null);
+        watchService = FileSystems.getDefault().newWatchService();
+        file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        thread = new Thread(this::run, "watcher-" + file.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+            thread.interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            boolean changed = false;
+            while (!Thread.currentThread().isInterrupted()) {
+                final WatchKey key = changed
+                        ? watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)
+                        : watchService.take();
+                if (key == null) {
+                    changed = false;
+                    runCallback();
+                    continue;
+                }
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (file.getFileName().equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignored) {
+            LOGGER.debug("Stopped watching {}", file);
+        }
+    }
+
+    private void runCallback() {
+        LOGGER.info("{} changed", file);
+        try {
+            onChange.run();
+        } catch (RuntimeException e) {
+            LOGGER.error("Handling change of " + file + " failed", e);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package la.jarve.automata.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.Observable;
+import rx.Subscription;
+import rx.functions.Action1;
+
+/**
+ * Subscriber which runs its action on a thread of its own, fed through a bounded queue, so an
+ * action which blocks or falls behind does not hold up the thread publishing the items. When
+ * the queue is full the item is dropped and counted, the publisher never waits.
+ */
+public final class QueuedAction<T> implements Action1<T>, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueuedAction.class);
+    private static final long WARN_EVERY_DROPPED = 1000;
+
+    @NotNull
+    private final String name;
+    @NotNull
+    private final Action1<? super T> action;
+    private final BlockingQueue<T> queue;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private Subscription subscription;
+
+    private QueuedAction(@NotNull final String name, final int capacity, @NotNull final Action1<? super T> action) {
+        this.name = name;
+        this.action = action;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.thread = Threads.newThread(name, this::run);
+    }
+
+    /**
+     * Subscribes the action to the observable, running it on a new thread with the name.
+     */
+    @NotNull
+    public static <T> QueuedAction<T> subscribe(@NotNull final Observable<T> observable, @NotNull final String name,
+                                                final int capacity, @NotNull final Action1<? super T> action) {
+        final QueuedAction<T> queued = new QueuedAction<>(name, capacity, action);
+        queued.thread.start();
+        queued.subscription = observable.subscribe(queued);
+        return queued;
+    }
+
+    @Override
+    public void call(final T item) {
+        if (!queue.offer(item) && dropped.getAndIncrement() % WARN_EVERY_DROPPED == 0) {
+            LOGGER.warn("{} fell behind, dropping events", name);
+        }
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private void run() {
+        while (running) {
+            final T item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException ignored) {
+                LOGGER.debug("{} interrupted", name);
+                return;
+            }
+            try {
+                action.call(item);
+            } catch (RuntimeException e) {
+                LOGGER.error(name + " failed on " + item, e);
+            }
+        }
+    }
+
+    /**
+     * Unsubscribes and stops the thread, dropping the queued items.
+     */
+    @Override
+    public void close() {
+        if (subscription != null && !subscription.isUnsubscribed()) {
+            subscription.unsubscribe();
+        }
+        running = false;
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,96 @@
+package la.jarve.automata.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+
+/**
+ * Creates the threads of the pipeline stages, as virtual threads when enabled and the JVM
+ * supports them. The virtual thread API is looked up reflectively, so the same build runs
+ * on Java 8 with platform threads.
+ */
+public final class Threads {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Threads.class);
+
+    private static volatile boolean virtual;
+
+    private Threads() {
+    }
+
+    /**
+     * Enables virtual threads for the threads created from now on.
+     *
+     * @return false if the JVM has no virtual threads, in which case platform threads are used
+     */
+    public static boolean useVirtualThreads(final boolean enabled) {
+        if (enabled && VirtualThreads.OF_VIRTUAL == null) {
+            LOGGER.warn("Virtual threads need Java 21 or later, using platform threads");
+            virtual = false;
+            return false;
+        }
+        virtual = enabled;
+        return true;
+    }
+
+    public static boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Unstarted daemon thread running the task.
+     */
+    @NotNull
+    public static Thread newThread(@NotNull final String name, @NotNull final Runnable task) {
+        if (virtual) {
+            try {
+                return VirtualThreads.newThread(name, task);
+            } catch (ReflectiveOperationException e) {
+                LOGGER.warn("Cannot create virtual thread " + name, e);
+            }
+        }
+        final Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Executor for AbstractExecutionThreadService.executor(), running the service on its own thread.
+     */
+    @NotNull
+    public static Executor serviceExecutor(@NotNull final String name) {
+        return task -> newThread(name, task).start();
+    }
+
+    private static final class VirtualThreads {
+        private static final Method OF_VIRTUAL;
+        private static final Method NAME;
+        private static final Method UNSTARTED;
+
+        static {
+            Method ofVirtual = null;
+            Method name = null;
+            Method unstarted = null;
+            try {
+                final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+                ofVirtual = Thread.class.getMethod("ofVirtual");
+                name = builder.getMethod("name", String.class);
+                unstarted = builder.getMethod("unstarted", Runnable.class);
+            } catch (ReflectiveOperationException ignored) {
+                ofVirtual = null;
+            }
+            OF_VIRTUAL = ofVirtual;
+            NAME = name;
+            UNSTARTED = unstarted;
+        }
+
+        private static Thread newThread(@NotNull final String name, @NotNull final Runnable task)
+                throws ReflectiveOperationException {
+            final Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), name);
+            return (Thread) UNSTARTED.invoke(builder, task);
+        }
+    }
+}
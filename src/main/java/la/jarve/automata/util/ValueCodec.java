@@ -0,0 +1,153 @@
+package la.jarve.automata.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import eu.aleon.aleoncean.device.DeviceParameter;
+
+/**
+ * Binary encoding of device parameter values: a type byte followed by the value. Supports the
+ * boxed primitives, short strings and enums, which covers the values aleoncean devices use.
+ */
+public final class ValueCodec {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ValueCodec.class);
+    // Strings are length-prefixed with a byte, so at most 255 bytes of UTF-8
+    private static final int MAX_STRING_LENGTH = 255 / 3;
+
+    private static final byte TYPE_BOOLEAN = 1;
+    private static final byte TYPE_INTEGER = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_DOUBLE = 4;
+    private static final byte TYPE_FLOAT = 5;
+    private static final byte TYPE_STRING = 6;
+    private static final byte TYPE_ENUM = 7;
+
+    /**
+     * Upper bound of the encoded size of a supported value.
+     */
+    public static final int MAX_VALUE_BYTES = 1 + 2 * 256;
+
+    private ValueCodec() {
+    }
+
+    public static boolean isSupported(@Nullable final Object value) {
+        return typeOf(value) != 0;
+    }
+
+    public static void putValue(@NotNull final ByteBuffer buffer, @NotNull final Object value) {
+        final byte type = typeOf(value);
+        buffer.put(type);
+        switch (type) {
+            case TYPE_BOOLEAN:
+                buffer.put((byte) ((Boolean) value ? 1 : 0));
+                break;
+            case TYPE_INTEGER:
+                buffer.putInt((Integer) value);
+                break;
+            case TYPE_LONG:
+                buffer.putLong((Long) value);
+                break;
+            case TYPE_DOUBLE:
+                buffer.putDouble((Double) value);
+                break;
+            case TYPE_FLOAT:
+                buffer.putFloat((Float) value);
+                break;
+            case TYPE_STRING:
+                putString(buffer, (String) value);
+                break;
+            case TYPE_ENUM:
+                putString(buffer, ((Enum<?>) value).getDeclaringClass().getName());
+                putString(buffer, ((Enum<?>) value).name());
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported value " + value);
+        }
+    }
+
+    /**
+     * @param parameter parameter of the value, only enums of its supported class are read
+     * @return the value, or null if its type or enum constant is unknown
+     */
+    @Nullable
+    public static Object getValue(@NotNull final ByteBuffer buffer, @NotNull final DeviceParameter parameter) {
+        final byte type = buffer.get();
+        switch (type) {
+            case TYPE_BOOLEAN:
+                return buffer.get() != 0;
+            case TYPE_INTEGER:
+                return buffer.getInt();
+            case TYPE_LONG:
+                return buffer.getLong();
+            case TYPE_DOUBLE:
+                return buffer.getDouble();
+            case TYPE_FLOAT:
+                return buffer.getFloat();
+            case TYPE_STRING:
+                return getString(buffer);
+            case TYPE_ENUM:
+                return enumValue(parameter, getString(buffer), getString(buffer));
+            default:
+                return null;
+        }
+    }
+
+    public static void putString(@NotNull final ByteBuffer buffer, @NotNull final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.put((byte) bytes.length);
+        buffer.put(bytes);
+    }
+
+    @NotNull
+    public static String getString(@NotNull final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.get() & 0xFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Resolves the constant against the class the parameter declares, never loading a class
+     * by the name read, which may come from another node.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    @Nullable
+    private static Object enumValue(@NotNull final DeviceParameter parameter, @NotNull final String className,
+                                    @NotNull final String name) {
+        final Class<?> supportedClass = parameter.getSupportedClass();
+        if (supportedClass.isEnum() && supportedClass.getName().equals(className)) {
+            try {
+                return Enum.valueOf((Class<? extends Enum>) supportedClass, name);
+            } catch (IllegalArgumentException e) {
+                LOGGER.warn("Skipping unknown value {}.{}", className, name);
+                return null;
+            }
+        }
+        LOGGER.warn("Skipping value {}.{}, {} takes {}", className, name, parameter, supportedClass.getName());
+        return null;
+    }
+
+    private static byte typeOf(@Nullable final Object value) {
+        if (value instanceof Boolean) {
+            return TYPE_BOOLEAN;
+        } else if (value instanceof Integer) {
+            return TYPE_INTEGER;
+        } else if (value instanceof Long) {
+            return TYPE_LONG;
+        } else if (value instanceof Double) {
+            return TYPE_DOUBLE;
+        } else if (value instanceof Float) {
+            return TYPE_FLOAT;
+        } else if (value instanceof String && ((String) value).length() <= MAX_STRING_LENGTH) {
+            return TYPE_STRING;
+        } else if (value instanceof Enum) {
+            return TYPE_ENUM;
+        }
+        return 0;
+    }
+}
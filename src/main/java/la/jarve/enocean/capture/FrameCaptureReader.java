@@ -0,0 +1,107 @@
+package la.jarve.enocean.capture;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads back the frames of a capture file written by FrameCaptureWriter. Not thread safe.
+ */
+public class FrameCaptureReader implements Closeable {
+
+    private static final int MAX_FRAME_LENGTH = 65535 + 255 + 7;
+
+    @NotNull
+    private final DataInputStream input;
+    private final long startMillis;
+    private byte[] frame = new byte[512];
+    private int length;
+    private long offsetNanos;
+
+    public FrameCaptureReader(@NotNull final Path file) throws IOException {
+        this.input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+        if (input.readInt() != FrameCaptureWriter.MAGIC) {
+            input.close();
+            throw new IOException("Not an ESP3 capture file: " + file);
+        }
+        final byte version = input.readByte();
+        if (version != FrameCaptureWriter.VERSION) {
+            input.close();
+            throw new IOException(String.format("Unsupported capture version %d in %s", version, file));
+        }
+        this.startMillis = input.readLong();
+    }
+
+    /**
+     * Wall clock time the capture was started at.
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * Advances to the next frame.
+     *
+     * @return false at the end of the capture, including a frame cut short by a crash
+     */
+    public boolean next() throws IOException {
+        try {
+            final long delta = readVarint();
+            final long frameLength = readVarint();
+            if (frameLength > MAX_FRAME_LENGTH) {
+                throw new IOException("Invalid frame length " + frameLength);
+            }
+            if (frameLength > frame.length) {
+                frame = new byte[(int) frameLength];
+            }
+            input.readFully(frame, 0, (int) frameLength);
+            length = (int) frameLength;
+            offsetNanos += delta;
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Buffer holding the current frame. It is reused for the next frame.
+     */
+    @NotNull
+    public byte[] getFrame() {
+        return frame;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Time of the current frame since the first frame of the capture.
+     */
+    public long getOffsetNanos() {
+        return offsetNanos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = input.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid varint");
+    }
+}
@@ -0,0 +1,80 @@
+package la.jarve.enocean.capture;
+
+import com.google.common.base.Preconditions;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends raw ESP3 frames with their receive time to a capture file.
+ *
+ * The file starts with a header of the magic number, a version and the wall clock time the
+ * capture started at. Each frame follows as the nanoseconds since the previous frame and the
+ * frame length, both as unsigned varints, and the frame bytes.
+ *
+ * Frames are buffered until flush(), which the writer of a batch of frames calls once it
+ * is done with the batch, as TCM310 does after every serial read.
+ */
+public class FrameCaptureWriter implements Closeable {
+
+    static final int MAGIC = 0x45535033; // "ESP3"
+    static final byte VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @NotNull
+    private final DataOutputStream output;
+    private long previousNanos = -1;
+    private long frames;
+
+    public FrameCaptureWriter(@NotNull final Path file) throws IOException {
+        final OutputStream stream = Files.newOutputStream(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.output = new DataOutputStream(new BufferedOutputStream(stream, BUFFER_SIZE));
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+        output.writeLong(System.currentTimeMillis());
+    }
+
+    /**
+     * @param receivedNanos System.nanoTime() at which the frame was received
+     */
+    public synchronized void write(@NotNull final byte[] frame, final int length, final long receivedNanos)
+            throws IOException {
+        Preconditions.checkArgument(length <= frame.length);
+        final long delta = previousNanos < 0 ? 0 : Math.max(0, receivedNanos - previousNanos);
+        previousNanos = receivedNanos;
+        writeVarint(delta);
+        writeVarint(length);
+        output.write(frame, 0, length);
+        frames++;
+    }
+
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    public synchronized void flush() throws IOException {
+        output.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        output.close();
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+}
@@ -0,0 +1,167 @@
+package la.jarve.enocean.capture;
+
+import com.google.common.base.Preconditions;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.aleon.aleoncean.packet.ESP3Packet;
+import eu.aleon.aleoncean.packet.ESP3PacketFactory;
+import eu.aleon.aleoncean.packet.PacketType;
+import eu.aleon.aleoncean.packet.ResponsePacket;
+import la.jarve.enocean.rxtx.TimestampedESP3Connector;
+
+/**
+ * Connector which reads the frames of a capture file instead of a TCM310. The frames are
+ * played back with their original spacing divided by the speed, or as fast as they are read
+ * when the speed is zero. Written packets go nowhere.
+ */
+public class ReplayConnector implements TimestampedESP3Connector {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplayConnector.class);
+
+    @NotNull
+    private final Path file;
+    private final double speed;
+    private final boolean loop;
+    private final AtomicLong writtenPackets = new AtomicLong();
+    private FrameCaptureReader reader;
+    private boolean pending;
+    private boolean finished;
+    private boolean radioFrames;
+    private long startNanos;
+    private volatile long lastReadNanos;
+
+    /**
+     * @param speed playback speed relative to real time, or 0 for as fast as possible
+     * @param loop  whether to start over at the end of the capture
+     */
+    public ReplayConnector(@NotNull final Path file, final double speed, final boolean loop) {
+        Preconditions.checkArgument(speed >= 0, "speed must not be negative");
+        this.file = file;
+        this.speed = speed;
+        this.loop = loop;
+    }
+
+    /**
+     * Opens the capture file, the device is ignored.
+     */
+    @Override
+    public boolean connect(@Nullable final String device) {
+        Preconditions.checkState(reader == null);
+        try {
+            open();
+            LOGGER.info("Replaying {} at speed {}", file, speed);
+            return true;
+        } catch (IOException e) {
+            LOGGER.error("Could not open capture " + file, e);
+            return false;
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        Preconditions.checkState(reader != null);
+        close();
+    }
+
+    @Nullable
+    @Override
+    public ResponsePacket write(@NotNull final ESP3Packet packet) {
+        writtenPackets.incrementAndGet();
+        LOGGER.debug("Not writing {} during replay", packet);
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public ESP3Packet read(final long timeout, @NotNull final TimeUnit unit) {
+        Preconditions.checkState(reader != null, "Not connected");
+        try {
+            if (!pending && !advance()) {
+                unit.sleep(timeout);
+                return null;
+            }
+            if (speed > 0) {
+                final long waitNanos = startNanos + (long) (reader.getOffsetNanos() / speed) - System.nanoTime();
+                if (waitNanos > unit.toNanos(timeout)) {
+                    unit.sleep(timeout);
+                    return null;
+                }
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+            pending = false;
+            lastReadNanos = System.nanoTime();
+            return ESP3PacketFactory.fromRaw(Arrays.copyOf(reader.getFrame(), reader.getLength()));
+        } catch (InterruptedException ignored) {
+            LOGGER.debug("Replay read interrupted");
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (IOException e) {
+            LOGGER.error("Could not read capture " + file, e);
+            finished = true;
+            return null;
+        }
+    }
+
+    @Override
+    public long getLastReadNanos() {
+        return lastReadNanos;
+    }
+
+    /**
+     * Number of packets the rules tried to send during the replay.
+     */
+    public long getWrittenPackets() {
+        return writtenPackets.get();
+    }
+
+    /**
+     * Moves to the next radio frame, starting over at the end of the capture when looping.
+     */
+    private boolean advance() throws IOException {
+        while (!finished) {
+            while (reader.next()) {
+                if (ESP3Packet.getPacketType(reader.getFrame()) != PacketType.RESPONSE) {
+                    pending = true;
+                    radioFrames = true;
+                    return true;
+                }
+            }
+            // A capture without radio frames would loop forever
+            if (loop && radioFrames) {
+                close();
+                open();
+            } else {
+                LOGGER.info("Replay of {} finished", file);
+                finished = true;
+            }
+        }
+        return false;
+    }
+
+    private void open() throws IOException {
+        reader = new FrameCaptureReader(file);
+        startNanos = System.nanoTime();
+        pending = false;
+        finished = false;
+        radioFrames = false;
+    }
+
+    private void close() {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            LOGGER.warn("Could not close capture " + file, e);
+        }
+        reader = null;
+    }
+}
@@ -0,0 +1,13 @@
+package la.jarve.enocean.device;
+
+import eu.aleon.aleoncean.device.StandardDevice;
+import eu.aleon.aleoncean.packet.EnOceanId;
+import eu.aleon.aleoncean.rxtx.ESP3Connector;
+
+/**
+ * Creates a device without reflection, usually a constructor reference.
+ */
+@FunctionalInterface
+public interface DeviceConstructor {
+    StandardDevice create(ESP3Connector conn, EnOceanId addressRemote, EnOceanId addressLocal);
+}
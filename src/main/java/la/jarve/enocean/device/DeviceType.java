@@ -0,0 +1,18 @@
+package la.jarve.enocean.device;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Registers a device class under a type of the remoteDevices configuration. The build
+ * generates DeviceConstructors.create() from the annotated classes, which need a public
+ * (ESP3Connector, EnOceanId, EnOceanId) constructor like StandardDevice. Kept in the class
+ * files, so an incremental compilation can check the types of the classes it does not compile.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface DeviceType {
+    String value();
+}
@@ -0,0 +1,14 @@
+package la.jarve.enocean.device;
+
+import eu.aleon.aleoncean.device.DeviceParameter;
+
+/**
+ * Device whose parameter values can be restored from a previous run, without transmitting
+ * anything or notifying the parameter listeners.
+ */
+public interface RestorableDevice {
+    /**
+     * @return false if the device has no such parameter or the value has the wrong type
+     */
+    boolean restoreParameter(DeviceParameter parameter, Object value);
+}
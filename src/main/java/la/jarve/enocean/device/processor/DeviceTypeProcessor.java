@@ -0,0 +1,243 @@
+package la.jarve.enocean.device.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Generates la.jarve.enocean.device.DeviceConstructors, a table from the types of the
+ * DeviceType annotations to constructor references of the annotated classes. A class which
+ * is not a StandardDevice, has no public (ESP3Connector, EnOceanId, EnOceanId) constructor or
+ * reuses a type fails the build.
+ *
+ * The table is also written as a listing of types and classes to the class output. An
+ * incremental compilation, which only sees the changed classes, merges in the entries of the
+ * previous listing whose classes still carry the same type, so the table stays complete.
+ *
+ * Compiled in a separate compiler execution before the rest of the sources, so it can only
+ * depend on the JDK and refers to the annotation and the device classes by name.
+ */
+public class DeviceTypeProcessor extends AbstractProcessor {
+
+    static final String DEVICE_TYPE = "la.jarve.enocean.device.DeviceType";
+    static final String GENERATED_PACKAGE = "la.jarve.enocean.device";
+    static final String GENERATED_CLASS = "DeviceConstructors";
+    static final String LISTING = "META-INF/automata/device-types";
+    private static final String STANDARD_DEVICE = "eu.aleon.aleoncean.device.StandardDevice";
+    private static final String[] CONSTRUCTOR_PARAMETERS = {
+            "eu.aleon.aleoncean.rxtx.ESP3Connector",
+            "eu.aleon.aleoncean.packet.EnOceanId",
+            "eu.aleon.aleoncean.packet.EnOceanId"};
+
+    private final Map<String, String> classesByType = new TreeMap<>();
+    private boolean generated;
+
+    /**
+     * Runs on every compilation, so the table is generated even when no class is annotated.
+     */
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton("*");
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            return false;
+        }
+        final TypeElement deviceType = processingEnv.getElementUtils().getTypeElement(DEVICE_TYPE);
+        if (deviceType != null) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(deviceType)) {
+                if (generated) {
+                    error(element, "@DeviceType on a generated class is not supported");
+                } else {
+                    register(element, deviceType);
+                }
+            }
+        }
+        // The table has to be written before the last round for it to be compiled
+        if (!generated) {
+            generated = true;
+            mergePreviousListing(deviceType);
+            generate();
+            writeListing();
+        }
+        return false;
+    }
+
+    private void register(final Element element, final TypeElement deviceType) {
+        final String type = typeOf(element, deviceType);
+        if (element.getKind() != ElementKind.CLASS || element.getModifiers().contains(Modifier.ABSTRACT)
+                || !element.getModifiers().contains(Modifier.PUBLIC)) {
+            error(element, "@DeviceType needs a public concrete class");
+            return;
+        }
+        final TypeElement typeElement = (TypeElement) element;
+        final TypeElement standardDevice = processingEnv.getElementUtils().getTypeElement(STANDARD_DEVICE);
+        if (standardDevice == null
+                || !processingEnv.getTypeUtils().isAssignable(typeElement.asType(), standardDevice.asType())) {
+            error(element, "@DeviceType class must extend " + STANDARD_DEVICE);
+            return;
+        }
+        if (!hasDeviceConstructor(typeElement)) {
+            error(element, "@DeviceType class needs a public constructor (ESP3Connector, EnOceanId, EnOceanId)");
+            return;
+        }
+        if (type == null || type.isEmpty()) {
+            error(element, "@DeviceType needs a type");
+            return;
+        }
+        final String className = typeElement.getQualifiedName().toString();
+        final String previous = classesByType.put(type, className);
+        if (previous != null && !previous.equals(className)) {
+            error(element, String.format("Device type '%s' is already used by %s", type, previous));
+        }
+    }
+
+    private String typeOf(final Element element, final TypeElement deviceType) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (!mirror.getAnnotationType().asElement().equals(deviceType)) {
+                continue;
+            }
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                    : mirror.getElementValues().entrySet()) {
+                if (entry.getKey().getSimpleName().contentEquals("value")) {
+                    return String.valueOf(entry.getValue().getValue());
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean hasDeviceConstructor(final TypeElement typeElement) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(typeElement.getEnclosedElements())) {
+            if (!constructor.getModifiers().contains(Modifier.PUBLIC)) {
+                continue;
+            }
+            final List<? extends VariableElement> parameters = constructor.getParameters();
+            if (parameters.size() != CONSTRUCTOR_PARAMETERS.length) {
+                continue;
+            }
+            boolean matches = true;
+            for (int i = 0; i < parameters.size(); i++) {
+                final TypeMirror parameterType = processingEnv.getTypeUtils().erasure(parameters.get(i).asType());
+                matches &= parameterType.toString().equals(CONSTRUCTOR_PARAMETERS[i]);
+            }
+            if (matches) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the entries of the listing of an earlier compilation whose classes are not part of
+     * this one. Entries of deleted classes, or of classes whose type changed, are dropped.
+     */
+    private void mergePreviousListing(final TypeElement deviceType) {
+        final List<String> lines;
+        try {
+            final FileObject listing = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "",
+                    LISTING);
+            lines = Arrays.asList(listing.getCharContent(true).toString().split("\n"));
+        } catch (IOException | IllegalArgumentException ignored) {
+            // No earlier compilation
+            return;
+        }
+        for (String line : lines) {
+            final int tab = line.indexOf('\t');
+            if (tab < 0) {
+                continue;
+            }
+            final String type = line.substring(0, tab);
+            final String className = line.substring(tab + 1);
+            final TypeElement element = processingEnv.getElementUtils().getTypeElement(className);
+            if (element == null || deviceType == null || !type.equals(typeOf(element, deviceType))) {
+                continue;
+            }
+            final String current = classesByType.get(type);
+            if (current == null) {
+                classesByType.put(type, className);
+            } else if (!current.equals(className)) {
+                error(processingEnv.getElementUtils().getTypeElement(current),
+                        String.format("Device type '%s' is already used by %s", type, className));
+            }
+        }
+    }
+
+    private void writeListing() {
+        try {
+            final FileObject listing = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                    LISTING);
+            try (Writer writer = listing.openWriter()) {
+                for (Map.Entry<String, String> entry : classesByType.entrySet()) {
+                    writer.write(entry.getKey() + "\t" + entry.getValue() + "\n");
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Cannot write " + LISTING + ": " + e);
+        }
+    }
+
+    private void generate() {
+        final String name = GENERATED_PACKAGE + "." + GENERATED_CLASS;
+        try {
+            final JavaFileObject file = processingEnv.getFiler().createSourceFile(name);
+            try (Writer writer = file.openWriter()) {
+                writer.write("package " + GENERATED_PACKAGE + ";\n\n");
+                writer.write("import java.util.LinkedHashMap;\n");
+                writer.write("import java.util.Map;\n\n");
+                // No @Generated, javax.annotation is gone from the JDK after Java 8
+                writer.write("/**\n * Generated by " + DeviceTypeProcessor.class.getName() + ".\n */\n");
+                writer.write("public final class " + GENERATED_CLASS + " {\n\n");
+                writer.write("    private " + GENERATED_CLASS + "() {\n    }\n\n");
+                writer.write("    /**\n     * Constructors of the @DeviceType classes by their type.\n     */\n");
+                writer.write("    public static Map<String, DeviceConstructor> create() {\n");
+                writer.write("        final Map<String, DeviceConstructor> constructors = new LinkedHashMap<>();\n");
+                for (Map.Entry<String, String> entry : classesByType.entrySet()) {
+                    writer.write(String.format("        constructors.put(\"%s\", %s::new);\n",
+                            escape(entry.getKey()), entry.getValue()));
+                }
+                writer.write("        return constructors;\n    }\n}\n");
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Cannot write " + name + ": " + e);
+        }
+    }
+
+    private void error(final Element element, final String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -14,9 +14,12 @@ import eu.aleon.aleoncean.packet.EnOceanId;
 import eu.aleon.aleoncean.packet.RadioPacket;
 import eu.aleon.aleoncean.packet.radio.RadioPacket4BS;
 import eu.aleon.aleoncean.rxtx.ESP3Connector;
-import la.jarve.enocean.packet.radio.userdata.UserDataEEPA51021;
+import la.jarve.enocean.device.DeviceType;
+import la.jarve.enocean.device.RestorableDevice;
+import la.jarve.enocean.packet.radio.userdata.MeterReadingDecoder;
 
-public class RemoteDeviceEEPA51201 extends StandardDevice implements RemoteDevice {
+@DeviceType("RD_A5-12-01")
+public class RemoteDeviceEEPA51201 extends StandardDevice implements RemoteDevice, RestorableDevice {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RemoteDeviceEEPA51201.class);
 
@@ -55,13 +58,13 @@ public class RemoteDeviceEEPA51201 extends StandardDevice implements RemoteDevic
             return;
         }
 
-        final UserDataEEPA51021 userData = new UserDataEEPA51021(packet.getUserDataRaw());
-        switch (userData.getDataType()) {
+        final byte[] userData = packet.getUserDataRaw();
+        switch (MeterReadingDecoder.getDataType(userData)) {
             case CUMULATIVE:
-                setEnergy(DeviceParameterUpdatedInitiation.RADIO_PACKET, userData.getValue());
+                setEnergy(DeviceParameterUpdatedInitiation.RADIO_PACKET, MeterReadingDecoder.getValue(userData));
                 break;
             case CURRENT:
-                setPower(DeviceParameterUpdatedInitiation.RADIO_PACKET, userData.getValue());
+                setPower(DeviceParameterUpdatedInitiation.RADIO_PACKET, MeterReadingDecoder.getValue(userData));
                 break;
             case UNKNOWN:
                 LOGGER.error("Unknown data type");
@@ -85,6 +88,23 @@ public class RemoteDeviceEEPA51201 extends StandardDevice implements RemoteDevic
         params.add(DeviceParameter.POWER_W);
     }
 
+    @Override
+    public boolean restoreParameter(final DeviceParameter parameter, final Object value) {
+        if (!(value instanceof Long)) {
+            return false;
+        }
+        switch (parameter) {
+            case ENERGY_WS:
+                energy = (Long) value;
+                return true;
+            case POWER_W:
+                power = (Long) value;
+                return true;
+            default:
+                return false;
+        }
+    }
+
     @Override
     public Object getByParameter(final DeviceParameter parameter) throws IllegalDeviceParameterException {
         switch (parameter) {
@@ -0,0 +1,353 @@
+package la.jarve.enocean.gateway;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.aleon.aleoncean.packet.ESP3Packet;
+import eu.aleon.aleoncean.packet.EnOceanId;
+import eu.aleon.aleoncean.packet.RadioPacket;
+import eu.aleon.aleoncean.packet.ResponsePacket;
+import eu.aleon.aleoncean.rxtx.ESP3Connector;
+import eu.aleon.aleoncean.rxtx.ReaderShutdownException;
+import la.jarve.automata.core.DeviceRoutingTable;
+import la.jarve.automata.util.Threads;
+import la.jarve.enocean.rxtx.TimestampedESP3Connector;
+
+/**
+ * Merges the radio packets of several gateways into one stream. A packet heard by more than
+ * one gateway is passed on only once. Packets for a device are sent through the connected
+ * gateway which heard that device with the strongest signal recently, see forDevice.
+ */
+public class MultiGatewayConnector implements TimestampedESP3Connector {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MultiGatewayConnector.class);
+    private static final int QUEUE_CAPACITY = 256;
+    private static final int FILTER_CAPACITY = 1024;
+    private static final long READ_TIMEOUT_MILLIS = 500;
+    // A device which moved or a gateway which lost it is no longer preferred after this long
+    private static final long SIGNAL_EXPIRY_NANOS = TimeUnit.MINUTES.toNanos(10);
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    @NotNull
+    private final List<Gateway> gateways;
+    @NotNull
+    private final RecentFrameFilter frameFilter;
+    private final BlockingQueue<ReceivedFrame> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    // Signal strength of the last packet each gateway heard from a sender
+    private final Map<Integer, SignalStrengths> signalStrengths = new ConcurrentHashMap<>();
+    private final AtomicLong duplicateFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private volatile boolean running;
+    private volatile long lastReadNanos;
+
+    /**
+     * @param connectors          connectors by the device they connect to, the first connected
+     *                            one is used when there is nothing known about the target device
+     * @param duplicateWindowNanos time within which the same packet from several gateways is
+     *                            taken as one
+     */
+    public MultiGatewayConnector(@NotNull final Map<String, ? extends ESP3Connector> connectors,
+                                 final long duplicateWindowNanos) {
+        Preconditions.checkArgument(!connectors.isEmpty(), "No gateways");
+        final ImmutableList.Builder<Gateway> builder = ImmutableList.builder();
+        int index = 0;
+        for (Map.Entry<String, ? extends ESP3Connector> entry : connectors.entrySet()) {
+            builder.add(new Gateway(index++, entry.getKey(), entry.getValue()));
+        }
+        this.gateways = builder.build();
+        this.frameFilter = new RecentFrameFilter(FILTER_CAPACITY, duplicateWindowNanos);
+    }
+
+    /**
+     * Connects every gateway, the device is ignored.
+     *
+     * @return true if at least one gateway could be connected
+     */
+    @Override
+    public boolean connect(@Nullable final String device) {
+        Preconditions.checkState(!running);
+        running = true;
+        boolean connected = false;
+        for (Gateway gateway : gateways) {
+            if (!gateway.connector.connect(gateway.device)) {
+                LOGGER.error("Could not connect gateway {}", gateway.device);
+                continue;
+            }
+            connected = true;
+            gateway.connected = true;
+            gateway.reader = Threads.newThread("gateway-reader-" + gateway.device, () -> runReader(gateway));
+            gateway.reader.start();
+        }
+        return connected;
+    }
+
+    @Override
+    public void disconnect() {
+        running = false;
+        for (Gateway gateway : gateways) {
+            if (gateway.reader != null) {
+                try {
+                    gateway.reader.join(2 * READ_TIMEOUT_MILLIS);
+                } catch (InterruptedException ignored) {
+                    LOGGER.debug("Interrupted while waiting for the reader of {} to stop", gateway.device);
+                    Thread.currentThread().interrupt();
+                }
+                gateway.reader = null;
+            }
+            if (gateway.connected) {
+                gateway.connector.disconnect();
+                gateway.connected = false;
+            }
+        }
+        queue.clear();
+    }
+
+    /**
+     * Writes through the first connected gateway. Devices should be given a forDevice
+     * connector instead.
+     */
+    @Nullable
+    @Override
+    public ResponsePacket write(@NotNull final ESP3Packet packet) {
+        return write(firstConnected(), packet);
+    }
+
+    @Nullable
+    private ResponsePacket write(final int index, @NotNull final ESP3Packet packet) {
+        final Gateway gateway = gateways.get(index);
+        if (!gateway.connected) {
+            LOGGER.warn("No gateway connected, not writing packet");
+            return null;
+        }
+        return gateway.connector.write(packet);
+    }
+
+    @Nullable
+    @Override
+    public ESP3Packet read(final long timeout, @NotNull final TimeUnit unit) {
+        try {
+            final ReceivedFrame frame = queue.poll(timeout, unit);
+            if (frame == null) {
+                return null;
+            }
+            lastReadNanos = frame.receivedNanos;
+            return frame.packet;
+        } catch (InterruptedException ignored) {
+            LOGGER.debug("Read poll interrupted");
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    public long getLastReadNanos() {
+        return lastReadNanos;
+    }
+
+    /**
+     * Connector for a device, which writes through the gateway that heard the device best.
+     * Connecting and disconnecting it does nothing, the gateways are connected by this
+     * connector.
+     */
+    @NotNull
+    public ESP3Connector forDevice(@NotNull final EnOceanId enOceanId) {
+        final int id = DeviceRoutingTable.toInt(enOceanId);
+        return new ESP3Connector() {
+            @Override
+            public boolean connect(final String device) {
+                return running;
+            }
+
+            @Override
+            public void disconnect() {
+                // The gateways stay connected for the other devices
+            }
+
+            @Override
+            public ResponsePacket write(final ESP3Packet packet) {
+                return MultiGatewayConnector.this.write(bestGateway(id), packet);
+            }
+
+            @Override
+            public ESP3Packet read(final long timeout, final TimeUnit unit) {
+                return MultiGatewayConnector.this.read(timeout, unit);
+            }
+        };
+    }
+
+    /**
+     * Index of the connected gateway which received the last packet of the sender with the
+     * strongest signal, ignoring packets older than ten minutes, or of the first connected
+     * gateway if none has heard the sender since.
+     */
+    public int bestGateway(final int senderId) {
+        final SignalStrengths strengths = signalStrengths.get(senderId);
+        final int best = strengths != null
+                ? strengths.best(System.nanoTime() - SIGNAL_EXPIRY_NANOS)
+                : -1;
+        return best >= 0 ? best : firstConnected();
+    }
+
+    /**
+     * Index of the first connected gateway, or 0 if none is connected.
+     */
+    private int firstConnected() {
+        for (Gateway gateway : gateways) {
+            if (gateway.connected) {
+                return gateway.index;
+            }
+        }
+        return 0;
+    }
+
+    @NotNull
+    public List<String> getGateways() {
+        final List<String> devices = new ArrayList<>(gateways.size());
+        for (Gateway gateway : gateways) {
+            devices.add(gateway.device);
+        }
+        return devices;
+    }
+
+    /**
+     * Number of packets dropped because another gateway had already received them.
+     */
+    public long getDuplicateFrames() {
+        return duplicateFrames.get();
+    }
+
+    /**
+     * Number of packets dropped because the merged queue was full.
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    private void runReader(@NotNull final Gateway gateway) {
+        while (running) {
+            final ESP3Packet packet;
+            try {
+                packet = gateway.connector.read(READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (ReaderShutdownException e) {
+                LOGGER.error("Reader of gateway {} shut down", gateway.device);
+                return;
+            }
+            if (packet instanceof RadioPacket) {
+                final long receivedNanos = gateway.connector instanceof TimestampedESP3Connector
+                        ? ((TimestampedESP3Connector) gateway.connector).getLastReadNanos()
+                        : System.nanoTime();
+                onPacket(gateway, (RadioPacket) packet, receivedNanos);
+            }
+        }
+    }
+
+    private void onPacket(@NotNull final Gateway gateway, @NotNull final RadioPacket packet,
+                          final long receivedNanos) {
+        final int senderId = DeviceRoutingTable.toInt(packet.getSenderId());
+        // Received signal strengths are negative dBm, whatever the sign of the reported value
+        signalStrengths.computeIfAbsent(senderId, id -> new SignalStrengths())
+                .update(gateway.index, -Math.abs(packet.getdBm()), receivedNanos);
+
+        final boolean duplicate;
+        synchronized (frameFilter) {
+            duplicate = frameFilter.isDuplicate(hash(senderId, packet), receivedNanos);
+        }
+        if (duplicate) {
+            duplicateFrames.incrementAndGet();
+        } else if (!queue.offer(new ReceivedFrame(packet, receivedNanos))) {
+            droppedFrames.incrementAndGet();
+            LOGGER.warn("Gateway queue full, dropping packet from {}", gateway.device);
+        }
+    }
+
+    /**
+     * FNV-1a over the sender, the choice and the user data, which are the same in every copy
+     * of a packet unlike the signal strength and repeater count.
+     */
+    private static long hash(final int senderId, @NotNull final RadioPacket packet) {
+        long hash = FNV_OFFSET;
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            hash = (hash ^ ((senderId >>> shift) & 0xFF)) * FNV_PRIME;
+        }
+        hash = (hash ^ (packet.getChoice() & 0xFF)) * FNV_PRIME;
+        final byte[] userData = packet.getUserDataRaw();
+        if (userData != null) {
+            for (byte b : userData) {
+                hash = (hash ^ (b & 0xFF)) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    private static final class Gateway {
+        private final int index;
+        private final String device;
+        private final ESP3Connector connector;
+        private volatile boolean connected;
+        private volatile Thread reader;
+
+        private Gateway(final int index, final String device, final ESP3Connector connector) {
+            this.index = index;
+            this.device = device;
+            this.connector = connector;
+        }
+    }
+
+    /**
+     * Signal strength and receive time of the last packet of a sender, by gateway. Updated by
+     * the reader threads and read by the writing ones.
+     */
+    private final class SignalStrengths {
+        private final int[] dBm = new int[gateways.size()];
+        private final long[] heardNanos = new long[gateways.size()];
+
+        private SignalStrengths() {
+            Arrays.fill(dBm, Integer.MIN_VALUE);
+        }
+
+        private synchronized void update(final int gateway, final int signal, final long receivedNanos) {
+            dBm[gateway] = signal;
+            heardNanos[gateway] = receivedNanos;
+        }
+
+        /**
+         * @return the connected gateway with the strongest signal heard since the time, or -1
+         */
+        private synchronized int best(final long sinceNanos) {
+            int best = -1;
+            for (int i = 0; i < dBm.length; i++) {
+                if (dBm[i] != Integer.MIN_VALUE && heardNanos[i] - sinceNanos >= 0 && gateways.get(i).connected
+                        && (best < 0 || dBm[i] > dBm[best])) {
+                    best = i;
+                }
+            }
+            return best;
+        }
+    }
+
+    private static final class ReceivedFrame {
+        private final RadioPacket packet;
+        private final long receivedNanos;
+
+        private ReceivedFrame(final RadioPacket packet, final long receivedNanos) {
+            this.packet = packet;
+            this.receivedNanos = receivedNanos;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package la.jarve.enocean.gateway;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Remembers the hashes of recently seen frames in a small open-addressing table of
+ * primitive longs, for dropping the copies of a frame heard by several gateways. Each
+ * hash is probed in a window of a few slots; when they are all taken by recent frames the
+ * oldest one is forgotten. Not thread safe.
+ */
+public class RecentFrameFilter {
+
+    private static final int PROBES = 4;
+
+    private final long[] hashes;
+    private final long[] seenNanos;
+    private final int mask;
+    private final long windowNanos;
+
+    /**
+     * @param capacity    number of frames remembered, rounded up to a power of two
+     * @param windowNanos time within which a frame with the same hash is a duplicate
+     */
+    public RecentFrameFilter(final int capacity, final long windowNanos) {
+        Preconditions.checkArgument(capacity > 0 && capacity <= 1 << 30);
+        int size = PROBES;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.hashes = new long[size];
+        this.seenNanos = new long[size];
+        this.mask = size - 1;
+        this.windowNanos = windowNanos;
+    }
+
+    /**
+     * Records the frame, unless it is a duplicate of one seen within the window.
+     *
+     * @return true if the frame is a duplicate
+     */
+    public boolean isDuplicate(final long hash, final long nowNanos) {
+        final int start = (int) (hash ^ (hash >>> 32)) & mask;
+        int replace = -1;
+        int oldest = start;
+        for (int i = 0; i < PROBES; i++) {
+            final int index = (start + i) & mask;
+            final boolean recent = seenNanos[index] != 0 && nowNanos - seenNanos[index] <= windowNanos;
+            if (recent && hashes[index] == hash) {
+                return true;
+            }
+            if (!recent && replace < 0) {
+                replace = index;
+            }
+            if (seenNanos[index] - seenNanos[oldest] < 0) {
+                oldest = index;
+            }
+        }
+        if (replace < 0) {
+            replace = oldest;
+        }
+        hashes[replace] = hash;
+        // Zero marks an empty slot
+        seenNanos[replace] = nowNanos != 0 ? nowNanos : 1;
+        return false;
+    }
+}
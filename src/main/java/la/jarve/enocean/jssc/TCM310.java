@@ -7,33 +7,78 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.beans.PropertyChangeEvent;
-import java.beans.PropertyChangeListener;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import eu.aleon.aleoncean.packet.ESP3Packet;
-import eu.aleon.aleoncean.packet.ESP3PacketBuilder;
 import eu.aleon.aleoncean.packet.ESP3PacketFactory;
 import eu.aleon.aleoncean.packet.ESP3Timeout;
 import eu.aleon.aleoncean.packet.PacketType;
 import eu.aleon.aleoncean.packet.ResponsePacket;
-import eu.aleon.aleoncean.rxtx.ESP3Connector;
 import eu.aleon.aleoncean.rxtx.ReaderShutdownException;
 import jssc.SerialPort;
 import jssc.SerialPortEvent;
 import jssc.SerialPortEventListener;
 import jssc.SerialPortException;
+import la.jarve.automata.metrics.Histogram;
+import la.jarve.automata.util.Threads;
+import la.jarve.enocean.capture.FrameCaptureWriter;
+import la.jarve.enocean.packet.ESP3FrameDecoder;
+import la.jarve.enocean.packet.FrameQueue;
+import la.jarve.enocean.rxtx.TimestampedESP3Connector;
 
-public class TCM310 implements ESP3Connector {
+public class TCM310 implements TimestampedESP3Connector {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TCM310.class);
+    private static final int MAX_FRAME_LENGTH = 512;
+    private static final int INPUT_QUEUE_CAPACITY = 256;
+    private static final int RESPONSE_QUEUE_CAPACITY = 16;
+    private static final long WRITER_IDLE_MILLIS = 100;
+    // Longest write() waits for a response, including the time queued behind other commands
+    private static final long WRITE_WAIT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
     private SerialPort serialPort;
     private String device;
 
-    private final BlockingQueue<byte[]> inputQueue = new LinkedBlockingQueue<>();
-    private final BlockingQueue<byte[]> inputResponseQueue = new LinkedBlockingQueue<>();
+    // Both queues are filled by the serial event thread. Radio packets are consumed by the
+    // reader and responses by the writer thread.
+    private final FrameQueue inputQueue = new FrameQueue(INPUT_QUEUE_CAPACITY, MAX_FRAME_LENGTH);
+    private final FrameQueue inputResponseQueue = new FrameQueue(RESPONSE_QUEUE_CAPACITY, MAX_FRAME_LENGTH);
+
+    private final int maxInFlight;
+    private final Queue<WriteRequest> writeQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger writeQueueDepth = new AtomicInteger();
+    // Written requests waiting for their response, in the order the TCM310 answers them.
+    // Only touched by the writer thread.
+    private final Deque<WriteRequest> inFlight = new ArrayDeque<>();
+    private final Histogram roundTripMicros = new Histogram();
+    // Guards enqueueing against disconnect, so no request is queued after the final drain
+    private final Object writeLock = new Object();
+    private volatile Thread writerThread;
+    private volatile FrameCaptureWriter capture;
+
+    public TCM310() {
+        this(1);
+    }
+
+    /**
+     * @param maxInFlight number of commands written to the TCM310 before their responses
+     *                    have arrived
+     */
+    public TCM310(final int maxInFlight) {
+        Preconditions.checkArgument(maxInFlight > 0);
+        this.maxInFlight = maxInFlight;
+    }
 
     @Override
     public boolean connect(@NotNull final String device) {
@@ -61,6 +106,9 @@ public class TCM310 implements ESP3Connector {
             return false;
         }
 
+        final Thread thread = Threads.newThread("TCM310-writer-" + device, this::runWriter);
+        writerThread = thread;
+        thread.start();
         return true;
     }
 
@@ -68,6 +116,26 @@ public class TCM310 implements ESP3Connector {
     public void disconnect() {
         Preconditions.checkState(serialPort != null);
         Preconditions.checkState(serialPort.isOpened());
+        final Thread thread;
+        synchronized (writeLock) {
+            thread = writerThread;
+            writerThread = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException ignored) {
+                LOGGER.debug("Interrupted while waiting for the writer to stop");
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Requests the writer did not get to before stopping
+        WriteRequest request;
+        while ((request = writeQueue.poll()) != null) {
+            request.future.cancel(false);
+            writeQueueDepth.decrementAndGet();
+        }
         try {
             serialPort.closePort();
         } catch (SerialPortException e) {
@@ -80,31 +148,79 @@ public class TCM310 implements ESP3Connector {
     @Nullable
     @Override
     public ResponsePacket write(@NotNull final ESP3Packet packet) {
-        Preconditions.checkState(serialPort != null && serialPort.isOpened());
-
-        // TODO: Should write happen in it's own thread?
-        final byte[] raw = packet.generateRaw();
+        final CompletableFuture<ResponsePacket> future;
         try {
-            serialPort.writeBytes(raw);
-        } catch (SerialPortException e) {
-            LOGGER.error("Could not write to device " + device, e);
+            future = writeAsync(packet);
+        } catch (IllegalStateException ignored) {
+            LOGGER.debug("Not writing, device {} disconnected", device);
             return null;
         }
-
         try {
-            final byte[] responseRaw = inputResponseQueue.poll(
-                    ESP3Timeout.RESPONSE, TimeUnit.MILLISECONDS);
-            if (responseRaw != null) {
-                return (ResponsePacket) ESP3PacketFactory.fromRaw(responseRaw);
+            return future.get(WRITE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ignored) {
+            LOGGER.warn("Gave up waiting for device {} to respond", device);
+            future.cancel(false);
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                LOGGER.debug("No response from device {}", device);
             } else {
-                return null;
+                LOGGER.error("Could not write to device " + device, e.getCause());
             }
+            return null;
+        } catch (CancellationException ignored) {
+            LOGGER.debug("Write cancelled, device {} disconnected", device);
+            return null;
         } catch (InterruptedException ignored) {
             LOGGER.debug("Interrupted while waiting for response");
+            Thread.currentThread().interrupt();
             return null;
         }
     }
 
+    @NotNull
+    public CompletableFuture<ResponsePacket> writeAsync(@NotNull final ESP3Packet packet) {
+        return writeAsync(packet, ESP3Timeout.RESPONSE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues the packet for the writer thread. The future completes with the response the
+     * TCM310 sends for this packet, or with a TimeoutException if none arrives in time.
+     */
+    @NotNull
+    public CompletableFuture<ResponsePacket> writeAsync(@NotNull final ESP3Packet packet,
+                                                       final long timeout, @NotNull final TimeUnit unit) {
+        final WriteRequest request = new WriteRequest(packet.generateRaw(), unit.toNanos(timeout));
+        final Thread thread;
+        synchronized (writeLock) {
+            thread = writerThread;
+            Preconditions.checkState(thread != null, "Not connected");
+            writeQueue.add(request);
+            writeQueueDepth.incrementAndGet();
+        }
+        LockSupport.unpark(thread);
+        return request.future;
+    }
+
+    /**
+     * Appends every frame received from now on to the capture, or stops capturing if null.
+     */
+    public void setCapture(@Nullable final FrameCaptureWriter capture) {
+        this.capture = capture;
+    }
+
+    /**
+     * Number of commands waiting to be written, including those waiting for a response.
+     */
+    public int getWriteQueueDepth() {
+        return writeQueueDepth.get();
+    }
+
+    @NotNull
+    public Histogram getRoundTripMicros() {
+        return roundTripMicros;
+    }
+
     @Nullable
     @Override
     public ESP3Packet read(final long timeout, final TimeUnit unit) throws ReaderShutdownException {
@@ -113,10 +229,6 @@ public class TCM310 implements ESP3Connector {
             if (raw == null) {
                 return null;
             }
-            if (raw.length == 0) {
-                throw new ReaderShutdownException();
-            }
-
             return ESP3PacketFactory.fromRaw(raw);
         } catch (InterruptedException ignored) {
             LOGGER.debug("Read poll interrupted");
@@ -124,14 +236,123 @@ public class TCM310 implements ESP3Connector {
         }
     }
 
-    private class MySerialPortEventListener implements SerialPortEventListener, PropertyChangeListener {
-        private final ESP3PacketBuilder packetBuilder;
+    @Override
+    public long getLastReadNanos() {
+        return inputQueue.getLastPolledNanos();
+    }
+
+    public long getDroppedFrames() {
+        return inputQueue.getDropped() + inputResponseQueue.getDropped();
+    }
+
+    private void runWriter() {
+        while (writerThread == Thread.currentThread() && !Thread.currentThread().isInterrupted()) {
+            byte[] responseRaw;
+            while ((responseRaw = inputResponseQueue.poll()) != null) {
+                completeResponse(responseRaw);
+            }
+            final long now = System.nanoTime();
+            expireRequests(now);
+
+            WriteRequest request;
+            while (inFlight.size() < maxInFlight && (request = writeQueue.poll()) != null) {
+                if (request.future.isDone()) {
+                    // Cancelled by a write() which gave up waiting
+                    writeQueueDepth.decrementAndGet();
+                } else {
+                    send(request);
+                }
+            }
+
+            final WriteRequest first = inFlight.peekFirst();
+            final long waitNanos = first != null
+                    ? Math.max(0, first.nextDeadline() - now)
+                    : TimeUnit.MILLISECONDS.toNanos(WRITER_IDLE_MILLIS);
+            if (writeQueue.isEmpty() || inFlight.size() >= maxInFlight) {
+                inputResponseQueue.await(waitNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        WriteRequest request;
+        while ((request = inFlight.pollFirst()) != null || (request = writeQueue.poll()) != null) {
+            request.future.cancel(false);
+            writeQueueDepth.decrementAndGet();
+        }
+    }
+
+    private void send(@NotNull final WriteRequest request) {
+        try {
+            serialPort.writeBytes(request.raw);
+        } catch (SerialPortException e) {
+            writeQueueDepth.decrementAndGet();
+            request.future.completeExceptionally(e);
+            return;
+        }
+        request.sentNanos = System.nanoTime();
+        inFlight.addLast(request);
+    }
+
+    private void completeResponse(@NotNull final byte[] responseRaw) {
+        final WriteRequest request = inFlight.pollFirst();
+        if (request == null) {
+            LOGGER.warn("Discarding unexpected response from device {}", device);
+            return;
+        }
+        writeQueueDepth.decrementAndGet();
+        if (request.timedOut) {
+            LOGGER.debug("Discarding late response from device {}", device);
+            return;
+        }
+        roundTripMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - request.sentNanos));
+        request.future.complete((ResponsePacket) ESP3PacketFactory.fromRaw(responseRaw));
+    }
+
+    /**
+     * Fails requests whose response did not arrive in time. A timed out request stays in the
+     * queue for another timeout period, so its late response is not taken as the response
+     * of the next request.
+     */
+    private void expireRequests(final long now) {
+        for (WriteRequest request : inFlight) {
+            if (!request.timedOut && now - request.sentNanos >= request.timeoutNanos) {
+                request.timedOut = true;
+                request.future.completeExceptionally(new TimeoutException());
+            }
+        }
+        WriteRequest first;
+        while ((first = inFlight.peekFirst()) != null && first.timedOut
+                && now - first.sentNanos >= 2 * first.timeoutNanos) {
+            inFlight.removeFirst();
+            writeQueueDepth.decrementAndGet();
+        }
+    }
+
+    private static final class WriteRequest {
+        private final byte[] raw;
+        private final long timeoutNanos;
+        private final CompletableFuture<ResponsePacket> future = new CompletableFuture<>();
+        private long sentNanos;
+        private boolean timedOut;
+
+        private WriteRequest(@NotNull final byte[] raw, final long timeoutNanos) {
+            this.raw = raw;
+            this.timeoutNanos = timeoutNanos;
+        }
+
+        private long nextDeadline() {
+            return sentNanos + (timedOut ? 2 : 1) * timeoutNanos;
+        }
+    }
+
+    private class MySerialPortEventListener implements SerialPortEventListener, ESP3FrameDecoder.FrameListener {
+        private final ESP3FrameDecoder frameDecoder;
         private final String device;
+        // Whether frames were captured since the capture was last flushed
+        private boolean captured;
 
         private MySerialPortEventListener(@NotNull final String device) {
             this.device = device;
-            packetBuilder = new ESP3PacketBuilder();
-            packetBuilder.addPropertyChangeListener(this);
+            frameDecoder = new ESP3FrameDecoder(MAX_FRAME_LENGTH, this);
         }
 
         @Override
@@ -140,22 +361,52 @@ public class TCM310 implements ESP3Connector {
                 final int byteCount = serialPortEvent.getEventValue();
                 try {
                     final byte[] bytes = serialPort.readBytes(byteCount);
-                    for (byte b : bytes) {
-                        packetBuilder.add(b);
+                    if (bytes != null) {
+                        frameDecoder.add(bytes, 0, bytes.length);
                     }
                 } catch (SerialPortException e) {
                     LOGGER.error("Could not read bytes for device" + device, e);
                 }
+                flushCapture();
             }
         }
 
         @Override
-        public void propertyChange(final PropertyChangeEvent evt) {
-            final byte[] raw = (byte[]) evt.getNewValue();
-            if (ESP3Packet.getPacketType(raw) == PacketType.RESPONSE) {
-                inputResponseQueue.add(raw);
-            } else {
-                inputQueue.add(raw);
+        public void onFrame(@NotNull final byte[] frame, final int length) {
+            final long receivedNanos = System.nanoTime();
+            final FrameQueue queue = ESP3Packet.getPacketType(frame) == PacketType.RESPONSE
+                    ? inputResponseQueue
+                    : inputQueue;
+            if (!queue.offer(frame, length, receivedNanos)) {
+                LOGGER.warn("Input queue full, dropping frame for device {}", device);
+            }
+            final FrameCaptureWriter frameCapture = capture;
+            if (frameCapture != null) {
+                try {
+                    frameCapture.write(frame, length, receivedNanos);
+                    captured = true;
+                } catch (IOException e) {
+                    LOGGER.error("Could not capture frame, capture stopped", e);
+                    capture = null;
+                }
+            }
+        }
+
+        /**
+         * Flushes the frames of a serial read to the capture file, so a crash or power loss
+         * loses at most the frames being read.
+         */
+        private void flushCapture() {
+            final FrameCaptureWriter frameCapture = capture;
+            if (frameCapture == null || !captured) {
+                return;
+            }
+            captured = false;
+            try {
+                frameCapture.flush();
+            } catch (IOException e) {
+                LOGGER.error("Could not flush frame capture, capture stopped", e);
+                capture = null;
             }
         }
     }
@@ -0,0 +1,137 @@
+package la.jarve.enocean.packet;
+
+import com.google.common.base.Preconditions;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Incremental ESP3 frame decoder. Incoming bytes are appended to a ring buffer, from which
+ * frames are parsed in place: sync byte, header and its CRC8, then data, optional data and
+ * their CRC8. A CRC mismatch resynchronizes on the next sync byte.
+ *
+ * Completed frames are copied to a reusable buffer and passed to the listener, so decoding
+ * does not allocate. Not thread-safe, meant to be fed from the serial event thread.
+ */
+public class ESP3FrameDecoder {
+
+    public static final byte SYNC_BYTE = 0x55;
+    public static final int HEADER_LENGTH = 4;
+    // sync + header + CRC8H + CRC8D
+    public static final int FRAME_OVERHEAD = 1 + HEADER_LENGTH + 1 + 1;
+
+    private static final int RING_SIZE = 4096;
+    private static final int RING_MASK = RING_SIZE - 1;
+    private static final byte[] CRC8_TABLE = new byte[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80) != 0 ? (crc << 1) ^ 0x07 : crc << 1;
+            }
+            CRC8_TABLE[i] = (byte) crc;
+        }
+    }
+
+    public interface FrameListener {
+        /**
+         * @param frame reusable buffer holding the complete frame from the sync byte on,
+         *              only valid during the call
+         */
+        void onFrame(@NotNull byte[] frame, int length);
+    }
+
+    private final byte[] ring = new byte[RING_SIZE];
+    private final byte[] frame;
+    @NotNull
+    private final FrameListener listener;
+    private long readPosition;
+    private long writePosition;
+    private long droppedBytes;
+
+    public ESP3FrameDecoder(final int maxFrameLength, @NotNull final FrameListener listener) {
+        Preconditions.checkArgument(maxFrameLength >= FRAME_OVERHEAD && maxFrameLength <= RING_SIZE);
+        this.frame = new byte[maxFrameLength];
+        this.listener = listener;
+    }
+
+    public void add(@NotNull final byte[] bytes, final int offset, final int length) {
+        for (int i = 0; i < length; i++) {
+            if (writePosition - readPosition == RING_SIZE) {
+                // Only possible when the buffer is filled with an unfinished frame
+                readPosition++;
+                droppedBytes++;
+            }
+            ring[(int) (writePosition++ & RING_MASK)] = bytes[offset + i];
+            parse();
+        }
+    }
+
+    public long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    public static byte crc8(@NotNull final byte[] bytes, final int offset, final int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc = CRC8_TABLE[(crc ^ bytes[i]) & 0xFF];
+        }
+        return (byte) crc;
+    }
+
+    private void parse() {
+        while (true) {
+            final long available = writePosition - readPosition;
+            if (available == 0) {
+                return;
+            }
+            if (at(0) != SYNC_BYTE) {
+                skip();
+                continue;
+            }
+            if (available < 1 + HEADER_LENGTH + 1) {
+                return;
+            }
+            if (crc8(1, HEADER_LENGTH) != at(1 + HEADER_LENGTH)) {
+                skip();
+                continue;
+            }
+            final int dataLength = ((at(1) & 0xFF) << 8) | (at(2) & 0xFF);
+            final int optionalLength = at(3) & 0xFF;
+            final int frameLength = FRAME_OVERHEAD + dataLength + optionalLength;
+            if (frameLength > frame.length) {
+                skip();
+                continue;
+            }
+            if (available < frameLength) {
+                return;
+            }
+            if (crc8(1 + HEADER_LENGTH + 1, dataLength + optionalLength) != at(frameLength - 1)) {
+                skip();
+                continue;
+            }
+            for (int i = 0; i < frameLength; i++) {
+                frame[i] = at(i);
+            }
+            readPosition += frameLength;
+            listener.onFrame(frame, frameLength);
+        }
+    }
+
+    private byte at(final int index) {
+        return ring[(int) ((readPosition + index) & RING_MASK)];
+    }
+
+    private void skip() {
+        readPosition++;
+        droppedBytes++;
+    }
+
+    private byte crc8(final int index, final int length) {
+        int crc = 0;
+        for (int i = index; i < index + length; i++) {
+            crc = CRC8_TABLE[(crc ^ at(i)) & 0xFF];
+        }
+        return (byte) crc;
+    }
+}
@@ -0,0 +1,142 @@
+package la.jarve.enocean.packet;
+
+import com.google.common.base.Preconditions;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free single-producer, single-consumer queue of frames. Frames are copied into
+ * preallocated slots, so offering a frame does not allocate. Each frame carries the
+ * System.nanoTime() it was received at.
+ */
+public class FrameQueue {
+
+    private final byte[][] slots;
+    private final int[] lengths;
+    private final long[] timestamps;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile Thread waiter;
+    // Consumer side
+    private long lastPolledNanos;
+
+    /**
+     * @param capacity power of two number of slots
+     */
+    public FrameQueue(final int capacity, final int maxFrameLength) {
+        Preconditions.checkArgument(Integer.bitCount(capacity) == 1);
+        this.slots = new byte[capacity][maxFrameLength];
+        this.lengths = new int[capacity];
+        this.timestamps = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Producer side. Returns false and counts the frame as dropped when the queue is full.
+     */
+    public boolean offer(@NotNull final byte[] frame, final int length) {
+        return offer(frame, length, System.nanoTime());
+    }
+
+    /**
+     * Producer side. Returns false and counts the frame as dropped when the queue is full.
+     */
+    public boolean offer(@NotNull final byte[] frame, final int length, final long receivedNanos) {
+        final long t = tail.get();
+        if (t - head.get() > mask || length > slots[0].length) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        final int index = (int) (t & mask);
+        System.arraycopy(frame, 0, slots[index], 0, length);
+        lengths[index] = length;
+        timestamps[index] = receivedNanos;
+        tail.set(t + 1);
+        final Thread thread = waiter;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+        return true;
+    }
+
+    /**
+     * Consumer side. Returns a copy of the next frame, or null if none is queued.
+     */
+    @Nullable
+    public byte[] poll() {
+        final long h = head.get();
+        if (h == tail.get()) {
+            return null;
+        }
+        final int index = (int) (h & mask);
+        final byte[] frame = Arrays.copyOf(slots[index], lengths[index]);
+        lastPolledNanos = timestamps[index];
+        head.set(h + 1);
+        return frame;
+    }
+
+    /**
+     * Consumer side. Waits up to the timeout for the next frame.
+     */
+    @Nullable
+    public byte[] poll(final long timeout, @NotNull final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            final byte[] frame = poll();
+            if (frame != null) {
+                return frame;
+            }
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            waiter = Thread.currentThread();
+            if (isEmpty()) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            waiter = null;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Consumer side. Parks until a frame is offered, the timeout passes or the consumer
+     * thread is unparked for another reason.
+     */
+    public void await(final long timeout, @NotNull final TimeUnit unit) {
+        waiter = Thread.currentThread();
+        if (isEmpty()) {
+            LockSupport.parkNanos(this, unit.toNanos(timeout));
+        }
+        waiter = null;
+    }
+
+    /**
+     * Consumer side. Receive time of the frame last returned by poll.
+     */
+    public long getLastPolledNanos() {
+        return lastPolledNanos;
+    }
+
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,49 @@
+package la.jarve.enocean.packet.radio.userdata;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Allocation free decoder of A5-12-01 metering telegrams, giving the same results as
+ * UserDataEEPA51021 straight from the raw user data.
+ *
+ * The meter reading is DB3..DB1, and the data type and divisor are the low three bits of
+ * DB0, which index tables of the unit and of a reciprocal. Dividing the 24 bit reading by
+ * multiplying with ceil(2^40 / divisor) and shifting is exact, as the rounding error of the
+ * reciprocal times the reading stays below 2^40 / divisor.
+ */
+public final class MeterReadingDecoder {
+
+    private static final int SHIFT = 40;
+    private static final UserDataEEPA51021.DataType[] DATA_TYPES = new UserDataEEPA51021.DataType[8];
+    private static final long[] RECIPROCALS = new long[8];
+    private static final long[] UNITS = new long[8];
+
+    static {
+        final long[] divisors = {1, 10, 100, 1000};
+        for (int bits = 0; bits < 8; bits++) {
+            final boolean current = (bits & 0x04) != 0;
+            DATA_TYPES[bits] = current ? UserDataEEPA51021.DataType.CURRENT : UserDataEEPA51021.DataType.CUMULATIVE;
+            UNITS[bits] = current ? 1 : 3600000;
+            final long divisor = divisors[bits & 0x03];
+            RECIPROCALS[bits] = ((1L << SHIFT) + divisor - 1) / divisor;
+        }
+    }
+
+    private MeterReadingDecoder() {
+    }
+
+    @NotNull
+    public static UserDataEEPA51021.DataType getDataType(@NotNull final byte[] userData) {
+        return DATA_TYPES[userData[3] & 0x07];
+    }
+
+    /**
+     * Energy in Ws for cumulative readings, power in W for current ones.
+     */
+    public static long getValue(@NotNull final byte[] userData) {
+        final long reading = (userData[0] & 0xFF) << 16 | (userData[1] & 0xFF) << 8 | userData[2] & 0xFF;
+        final int bits = userData[3] & 0x07;
+        // The product needs up to 64 bits, so it is shifted as unsigned
+        return (reading * RECIPROCALS[bits] >>> SHIFT) * UNITS[bits];
+    }
+}
@@ -0,0 +1,14 @@
+package la.jarve.enocean.rxtx;
+
+import eu.aleon.aleoncean.rxtx.ESP3Connector;
+
+/**
+ * ESP3Connector which knows when the packets it reads were received.
+ */
+public interface TimestampedESP3Connector extends ESP3Connector {
+    /**
+     * @return System.nanoTime() at which the frame of the packet last returned by read was
+     * completely received
+     */
+    long getLastReadNanos();
+}